@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// Disassembles many files in one JVM:
+//   java Batch [-w N] [flags of Main] <input directory> <output directory>
+//   java Batch [-w N] [flags of Main] <manifest> <output directory>
+// A manifest has one "<input> [output]" pair per line; outputs default to <output directory>/<name>.txt,
+// where the name is the input's file name, or its path under the common directory of all inputs when two
+// of them share a file name. Files are processed on N workers; a file that fails is reported and does not
+// stop the batch. --stats and --metrics name directories here, which get one <name>.json report per file.
+public class Batch {
+    public static class Job {
+        public Path input;
+        public Path output;
+        public Path name; // of the default output and of the reports, see nameJobs
+        public long bytes;
+        public String error;
+    }
+
+    public static void main(String[] args) {
+        try {
+            List<String> files = new ArrayList<>();
+            DisassemblerOptions options = Main.parseOptions(args, files);
+            List<Job> jobs = listJobs(Path.of(files.get(0)), Path.of(files.get(1)));
+            int failed = run(jobs, options, System.out);
+            System.exit(failed == 0 ? 0 : 1);
+        } catch (Exception e) {
+            System.out.println("Something went wrong, I give up: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    public static List<Job> listJobs(Path source, Path outputDir) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> inputs = Files.list(source)) {
+                inputs.filter(Files::isRegularFile).sorted()
+                        .forEach(input -> jobs.add(job(input, null)));
+            }
+            nameJobs(jobs, outputDir);
+            return jobs;
+        }
+        for (String line : Files.readAllLines(source)) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts[0].isEmpty() || parts[0].startsWith("#")) {
+                continue;
+            }
+            Path input = Path.of(parts[0]);
+            jobs.add(job(input, parts.length > 1 ? Path.of(parts[1]) : null));
+        }
+        nameJobs(jobs, outputDir);
+        return jobs;
+    }
+
+    // Names every job after its input's file name, or, when two inputs of a manifest share one, after
+    // its path under the inputs' common directory, so that outputs and reports mirror the input tree
+    // instead of overwriting each other. An input listed twice or two jobs with the same output are
+    // rejected before anything runs.
+    private static void nameJobs(List<Job> jobs, Path outputDir) {
+        Map<Path, Job> byName = new HashMap<>();
+        Path root = null;
+        for (Job job : jobs) {
+            Path dir = job.input.toAbsolutePath().normalize().getParent();
+            root = root == null ? dir : root;
+            while (root != null && !dir.startsWith(root)) {
+                root = root.getParent();
+            }
+            byName.put(job.input.getFileName(), job);
+        }
+        boolean repeated = byName.size() < jobs.size();
+        byName.clear();
+        Map<Path, Job> byOutput = new HashMap<>();
+        for (Job job : jobs) {
+            Path input = job.input.toAbsolutePath().normalize();
+            if (!repeated) {
+                job.name = job.input.getFileName();
+            } else {
+                job.name = root == null ? input.subpath(0, input.getNameCount()) : root.relativize(input);
+            }
+            if (job.output == null) {
+                job.output = outputDir.resolve(job.name + ".txt");
+            }
+            Job other = byName.put(job.name, job);
+            if (other != null) {
+                throw new IllegalArgumentException("Input " + job.input + " is listed twice");
+            }
+            other = byOutput.put(job.output.toAbsolutePath().normalize(), job);
+            if (other != null) {
+                throw new IllegalArgumentException("Listings of " + other.input + " and " + job.input
+                        + " would both be written to " + job.output);
+            }
+        }
+    }
+
+    // runs all jobs, prints failures and a summary to log and returns the number of failed files
+    public static int run(List<Job> jobs, DisassemblerOptions options, PrintStream log) throws Exception {
+        if (options.workers < 1) {
+            throw new IllegalArgumentException("Number of workers must be at least 1, got " + options.workers);
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(options.workers);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (Job job : jobs) {
+                done.add(executor.submit(() -> process(job, options)));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int failed = 0;
+        long bytes = 0;
+        for (Job job : jobs) {
+            bytes += job.bytes;
+            if (job.error != null) {
+                failed++;
+                log.println(job.input + ": " + job.error);
+            }
+        }
+        log.printf("%d files, %d failed, %.1f MB in %.3f s (%.1f files/s, %.1f MB/s)%n", jobs.size(), failed,
+                bytes / 1e6, seconds, jobs.size() / seconds, bytes / 1e6 / seconds);
+        return failed;
+    }
+
+    private static void process(Job job, DisassemblerOptions options) {
+        try {
+            options = reportOptions(job, options);
+            long start = System.nanoTime();
+            ByteBuffer elf = Main.map(job.input);
+            job.bytes = elf.capacity();
+            if (options.metrics != null) {
+                options.metrics.nanos[Metrics.LOAD] = System.nanoTime() - start;
+                options.metrics.inputBytes = elf.capacity();
+            }
+            Path parent = job.output.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (OutputStream output = Files.newOutputStream(job.output)) {
+                Main.main(elf, output, options);
+            }
+            Main.writeReports(options);
+        } catch (UnsupportedFileFormatException e) {
+            job.error = "Unsupported file format: " + e.getMessage();
+        } catch (NoSuchFileException e) {
+            job.error = "Input file not found: " + e.getMessage();
+        } catch (IOException e) {
+            job.error = "I/O error: " + e.getMessage();
+        } catch (Exception e) {
+            job.error = "Something went wrong: " + e;
+        }
+    }
+
+    // options with a fresh InstructionStats and Metrics for this file and the report files in the
+    // --stats and --metrics directories, or options itself when neither is asked for
+    private static DisassemblerOptions reportOptions(Job job, DisassemblerOptions options) throws IOException {
+        if (options.statsFile == null && options.metricsFile == null) {
+            return options;
+        }
+        DisassemblerOptions res = options.copy();
+        String name = (job.name != null ? job.name : job.input.getFileName()) + ".json";
+        if (options.statsFile != null) {
+            res.statsFile = options.statsFile.resolve(name);
+            Files.createDirectories(res.statsFile.toAbsolutePath().getParent());
+            res.stats = new InstructionStats();
+        }
+        if (options.metricsFile != null) {
+            res.metricsFile = options.metricsFile.resolve(name);
+            Files.createDirectories(res.metricsFile.toAbsolutePath().getParent());
+            res.metrics = new Metrics();
+        }
+        return res;
+    }
+
+    private static Job job(Path input, Path output) {
+        Job job = new Job();
+        job.input = input;
+        job.output = output;
+        return job;
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+// Quick throughput and allocation checks, run one at a time as java Benchmark <target> [size]:
+//   decode [instructions]          RISCVDecoder.decode over random RV32IM words
+//   decode-rvc [instructions]      the same over .text with a quarter of RVC instructions
+//   sections [sections]            ElfParser.parseSectionHeaderTable
+//   symbols [symbols]              ElfParser.parseSymbolTable and writeSymbolTable
+//   symbols-elf64-be [symbols]     the same for a big-endian ELF64 file
+//   symbols-heap [symbols]         heap kept after the symbol listing, all or a quarter FUNC
+//   main [instructions]            Main.main(InputStream, OutputStream) end to end
+//   filtered [instructions]        the same with --symbol matching one function
+//   split [sections]               the same over 2^20 instructions in that many code sections
+//   reject [instructions]          rejecting a file of that size whose last section ends past EOF
+//   cfg [instructions]             building ControlFlowGraph
+//   scaling <elf> [max threads]    end to end with 1, 2, 4, ... threads
+//   sim [iterations]               Simulator.run over a mul/add/xor/addi/bne loop
+// Inputs are built with SyntheticElf. Allocation is measured on the benchmark thread only and each target
+// runs just a few times; the JMH benchmarks in jmh/ (see pom.xml) are the ones to trust for numbers.
+public class Benchmark {
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        String target = args.length > 0 ? args[0] : "";
+        int size = args.length > 1 && !target.equals("scaling") ? Integer.parseInt(args[1]) : 0;
+        switch (target) {
+            case "decode" -> decode(size > 0 ? size : 1 << 20);
+            case "decode-rvc" -> decodeCompressed(size > 0 ? size : 1 << 20);
+            case "sections" -> sections(size > 0 ? size : 10_000);
+            case "symbols" -> symbols(size > 0 ? size : 100_000, false, false);
+            case "symbols-elf64-be" -> symbols(size > 0 ? size : 100_000, true, true);
+            case "symbols-heap" -> symbolsHeap(size > 0 ? size : 500_000);
+            case "main" -> endToEnd(size > 0 ? size : 1 << 20);
+            case "filtered" -> filtered(size > 0 ? size : 1 << 20);
+            case "split" -> split(size > 0 ? size : 10_000);
+            case "reject" -> reject(size > 0 ? size : 1 << 22);
+            case "cfg" -> cfg(size > 0 ? size : 1 << 20);
+            case "sim" -> sim(size > 0 ? size : 1 << 22);
+            case "scaling" -> scaling(Path.of(args[1]),
+                    args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+            default -> System.out.println("Usage: java Benchmark decode|decode-rvc|sections|symbols"
+                    + "|symbols-elf64-be|symbols-heap|main|filtered|split|reject|cfg|sim [size]"
+                    + " | scaling <elf> [max threads]");
+        }
+    }
+
+    private static void decode(int instructions) throws Exception {
+        Random random = new Random(0);
+        int[] words = new int[instructions];
+        for (int i = 0; i < instructions; i++) {
+            words[i] = SyntheticElf.randomInstruction(random, i, instructions);
+        }
+        Instruction insn = new Instruction();
+        Result result = measure(() -> {
+            for (int word : words) {
+                RISCVDecoder.RV32.decode(word, insn);
+                sink += insn.mnemonic;
+            }
+        });
+        result.print("decode", instructions, "insn", instructions * 4L);
+    }
+
+    private static void decodeCompressed(int instructions) throws Exception {
+        ElfFile file = new ElfFile(ByteBuffer.wrap(SyntheticElf.generate(instructions, 0, 0, 0, true)));
+        ByteBuffer text = file.buffer().slice(file.text().offset, file.text().size).order(ByteOrder.LITTLE_ENDIAN);
+        int size = text.limit();
+        Instruction insn = new Instruction();
+        RISCVDecoder decoder = RISCVDecoder.of(32, true);
+        Result result = measure(() -> {
+            for (int offset = 0; offset < size; offset += insn.length) {
+                int word = offset + 4 <= size ? text.getInt(offset) : text.getShort(offset);
+                decoder.decode(word, insn);
+                sink += insn.mnemonic;
+            }
+        });
+        result.print("decode-rvc", instructions, "insn", size);
+    }
+
+    private static void sections(int sections) throws Exception {
+        ByteBuffer elf = ByteBuffer.wrap(SyntheticElf.generate(16, 16, sections, 0));
+        Result result = measure(() -> new ElfParser(elf, OutputStream.nullOutputStream()).parseSectionHeaderTable());
+        result.print("sections", sections + 5, "section", (sections + 5L) * ElfFile.SECTION_HEADER_SIZE);
+    }
+
+    private static void symbols(int symbols, boolean is64, boolean bigEndian) throws Exception {
+        ByteBuffer elf = ByteBuffer.wrap(SyntheticElf.generate(symbols, symbols, 0, 0, false, is64, bigEndian));
+        Result result = measure(() -> {
+            ElfParser parser = new ElfParser(elf, OutputStream.nullOutputStream());
+            parser.parseSectionHeaderTable();
+            parser.parseSymbolTable();
+            parser.writeSymbolTable();
+        });
+        result.print(is64 ? "symbols-elf64-be" : "symbols", symbols, "symbol",
+                (long) symbols * new ElfFile(elf).reader().symbolEntrySize());
+    }
+
+    // What stays reachable from the parser: the .symtab columns, SymbolIndex and the names of the FUNC
+    // symbols. Other names are written from .strtab and not kept. Measured around System.gc(), so roughly.
+    private static void symbolsHeap(int symbols) throws Exception {
+        for (int funcEvery : new int[]{1, 4}) {
+            ByteBuffer elf = ByteBuffer.wrap(SyntheticElf.generate(16, symbols, 0, 0)).order(ByteOrder.LITTLE_ENDIAN);
+            ElfSectionHeader symtab = new ElfFile(elf).section(".symtab");
+            for (int idx = 1; idx <= symbols; idx++) {
+                if (idx % funcEvery != 0) {
+                    elf.put(symtab.offset + idx * ElfFile.SYMBOL_SIZE + 12, (byte) 0x11); // GLOBAL OBJECT
+                }
+            }
+            long before = usedHeap();
+            long start = System.nanoTime();
+            ElfParser parser = new ElfParser(elf, OutputStream.nullOutputStream());
+            parser.parseSectionHeaderTable();
+            parser.parseSymbolTable();
+            parser.writeSymbolTable();
+            double ms = (System.nanoTime() - start) / 1e6;
+            long retained = usedHeap() - before;
+            System.out.printf("%-12s %10.3f ms %10.1f retained B/symbol%n", "func 1/" + funcEvery, ms,
+                    (double) retained / symbols);
+            sink += parser.hashCode();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void endToEnd(int instructions) throws Exception {
+        byte[] elf = SyntheticElf.generate(instructions, instructions / 64, 0, 0);
+        Result result = measure(() -> Main.main(new ByteArrayInputStream(elf), OutputStream.nullOutputStream()));
+        result.print("main", instructions, "insn", elf.length);
+    }
+
+    private static void filtered(int instructions) throws Exception {
+        ByteBuffer elf = ByteBuffer.wrap(SyntheticElf.generate(instructions, instructions / 64, 0, 0));
+        DisassemblerOptions options = new DisassemblerOptions();
+        options.symbolPatterns.add("func_1");
+        Result result = measure(() -> Main.main(elf, OutputStream.nullOutputStream(), options));
+        result.print("filtered", instructions, "insn", elf.capacity());
+    }
+
+    private static void split(int sections) throws Exception {
+        int instructions = 1 << 20;
+        byte[] elf = SyntheticElf.generate(instructions, instructions / 64, 0, 0, false, false, false, sections, false);
+        Result result = measure(() -> Main.main(new ByteArrayInputStream(elf), OutputStream.nullOutputStream()));
+        result.print("split", instructions, "insn", elf.length);
+    }
+
+    // the time should stay the same whatever the size: only the 1005 section headers are looked at
+    private static void reject(int instructions) throws Exception {
+        byte[] elf = SyntheticElf.generate(instructions, 16, 1000, 0);
+        ElfReader reader = new ElfFile(ByteBuffer.wrap(elf)).reader();
+        int last = (int) reader.sectionTableOffset() + (reader.sectionCount() - 1) * reader.sectionHeaderSize();
+        ByteBuffer.wrap(elf).order(ByteOrder.LITTLE_ENDIAN).putInt(last + 20, elf.length); // sh_size
+        Result result = measure(() -> {
+            try {
+                new ElfFile(ByteBuffer.wrap(elf));
+                throw new IllegalStateException("Broken file was accepted");
+            } catch (UnsupportedFileFormatException e) {
+                sink += e.getMessage().length();
+            }
+        });
+        result.print("reject", 1, "file", elf.length);
+    }
+
+    private static void cfg(int instructions) throws Exception {
+        ByteBuffer elf = ByteBuffer.wrap(SyntheticElf.generate(instructions, instructions / 64, 0, 0));
+        Result result = measure(() -> sink += new ControlFlowGraph(new ElfFile(elf)).blockCount());
+        result.print("cfg", instructions, "insn", instructions * 4L);
+    }
+
+    private static void sim(int iterations) throws Exception {
+        int n = (iterations + 0xfff) & ~0xfff; // loaded with a single lui
+        int[] code = {
+                SyntheticElf.encodeI(0, 0, 0b000, 5, 0b0010011),                // addi t0, zero, 0
+                SyntheticElf.encodeI(3, 0, 0b000, 6, 0b0010011),                // addi t1, zero, 3
+                SyntheticElf.encodeU(n >>> 12, 7, 0b0110111),                   // lui t2, n
+                SyntheticElf.encodeR(0b0000001, 6, 7, 0b000, 28, 0b0110011),    // loop: mul t3, t2, t1
+                SyntheticElf.encodeR(0, 28, 5, 0b000, 5, 0b0110011),            // add t0, t0, t3
+                SyntheticElf.encodeR(0, 7, 5, 0b100, 5, 0b0110011),             // xor t0, t0, t2
+                SyntheticElf.encodeI(-1, 7, 0b000, 7, 0b0010011),               // addi t2, t2, -1
+                SyntheticElf.encodeB(-16, 0, 7, 0b001),                         // bne t2, zero, loop
+                0x00100073,                                                     // ebreak
+        };
+        ElfFile file = new ElfFile(ByteBuffer.wrap(SyntheticElf.build(code, 0, 0, new Random(0))));
+        int expected = 0;
+        for (int i = n; i != 0; i--) {
+            expected = (expected + i * 3) ^ i;
+        }
+        long steps = 3 + 5L * n + 1;
+        int sum = expected;
+        Result result = measure(() -> {
+            Simulator sim = new Simulator(file);
+            sim.run(Long.MAX_VALUE);
+            if (sim.regs[5] != sum || sim.steps != steps) {
+                throw new IllegalStateException("Wrong result " + sim.regs[5] + " after " + sim.steps + " steps");
+            }
+        });
+        result.print("sim", steps, "insn", steps * 4);
+    }
+
+    // sweeps the thread count of the chunked .text disassembly: 1, 2, 4, ... up to maxThreads
+    private static void scaling(Path file, int maxThreads) throws Exception {
+        ByteBuffer elf = Main.map(file);
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            DisassemblerOptions options = new DisassemblerOptions();
+            options.threads = threads;
+            Result result = measure(() -> Main.main(elf, OutputStream.nullOutputStream(), options));
+            result.print("threads=" + threads, elf.capacity() / 4, "word", elf.capacity());
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+
+    // Inputs built and a task returned for jmh.DisassemblerBenchmark, which is in a package and so can only
+    // reach this class by name; one call handles a whole file, or all the words for decode.
+    public static Callable<Object> target(String name, int instructions, int threads) throws Exception {
+        ByteBuffer elf = ByteBuffer.wrap(SyntheticElf.generate(instructions, instructions / 64, 0, 0));
+        DisassemblerOptions options = new DisassemblerOptions();
+        options.threads = threads;
+        switch (name) {
+            case "decode" -> {
+                Random random = new Random(0);
+                int[] words = new int[instructions];
+                for (int i = 0; i < instructions; i++) {
+                    words[i] = SyntheticElf.randomInstruction(random, i, instructions);
+                }
+                Instruction insn = new Instruction();
+                return () -> {
+                    int sum = 0;
+                    for (int word : words) {
+                        RISCVDecoder.RV32.decode(word, insn);
+                        sum += insn.mnemonic;
+                    }
+                    return sum;
+                };
+            }
+            case "symbols" -> {
+                ByteBuffer symbolsElf = ByteBuffer.wrap(SyntheticElf.generate(16, instructions, 0, 0));
+                return () -> {
+                    ElfParser parser = new ElfParser(symbolsElf, OutputStream.nullOutputStream());
+                    parser.parseSectionHeaderTable();
+                    parser.parseSymbolTable();
+                    parser.writeSymbolTable();
+                    return parser;
+                };
+            }
+            case "main", "jsonl" -> {
+                options.format = name.equals("main") ? "text" : name;
+                return () -> {
+                    Main.main(elf, OutputStream.nullOutputStream(), options);
+                    return options;
+                };
+            }
+            case "main-rvc" -> {
+                ByteBuffer compressedElf = ByteBuffer.wrap(
+                        SyntheticElf.generate(instructions, instructions / 64, 0, 0, true));
+                return () -> {
+                    Main.main(compressedElf, OutputStream.nullOutputStream(), options);
+                    return options;
+                };
+            }
+            case "cfg" -> {
+                ElfFile file = new ElfFile(elf);
+                return () -> new ControlFlowGraph(file).blockCount();
+            }
+            default -> throw new IllegalArgumentException("Unknown benchmark target " + name);
+        }
+    }
+
+    // average wall time and allocation of MEASURED_RUNS runs after WARMUP_RUNS
+    public static Result measure(Task task) throws Exception {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            task.run();
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            task.run();
+        }
+        Result result = new Result();
+        result.seconds = (System.nanoTime() - start) / 1e9 / MEASURED_RUNS;
+        result.allocatedBytes = (THREADS.getCurrentThreadAllocatedBytes() - allocated) / MEASURED_RUNS;
+        return result;
+    }
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    public static class Result {
+        public double seconds;
+        public long allocatedBytes;
+
+        public void print(String name, long items, String unit, long bytes) {
+            System.out.printf("%-12s %10.3f ms %12.0f %s/s %10.1f MB/s %10.1f alloc B/%s%n", name, seconds * 1e3,
+                    items / seconds, unit, bytes / seconds / 1e6, (double) allocatedBytes / Math.max(items, 1), unit);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Basic blocks of .text with successor/predecessor edges in CSR form (edgesStart[b]..edgesStart[b + 1]
+// indexes edges), plus a call graph between FUNC symbols. Blocks start at .text, at branch and jal
+// targets, after every branch, jal and jalr and at function symbols. Calls (jal/jalr with rd != zero)
+// fall through to the next block; "jalr zero" and "jal zero" end a block with no fallthrough.
+// Compressed jumps count as the instructions they stand for. Building is two linear passes over .text.
+// Positions in .text are counted in slots: 4 bytes, or 2 bytes when the file has compressed code.
+public class ControlFlowGraph {
+    private static final int JALR = OpCodes.mnemonicId("jalr");
+    private static final int RA = 1;
+    private final ByteBuffer elf;
+    private final SymbolIndex functions;
+    private final int textStart, textEnd, textAddr, count; // count of slots
+    private final long addressBase; // upper half of the addresses, ELF64 only
+    private final RISCVDecoder decoder;
+    private final int shift; // log2 of the slot size
+    private int[] blockStart; // first slot of each block, count at the end
+    private int[] blockLength; // instructions per block
+    private int[] succStart, succ;
+    private int[] predStart, pred;
+    private int[] blockFunction; // position in functions, -1 outside any function
+    private int[] callStart, callee; // call graph over function positions, deduplicated
+    private int[] indirectCalls; // jalr calls per function
+
+    public ControlFlowGraph(ElfFile file) {
+        this.elf = file.buffer();
+        this.functions = file.functions();
+        ElfSectionHeader text = file.text();
+        this.textStart = text == null ? 0 : text.offset;
+        this.textEnd = text == null ? 0 : text.offset + text.size;
+        this.textAddr = text == null ? 0 : (int) text.layoutAddr;
+        this.addressBase = file.addressBase();
+        this.decoder = file.decoder();
+        this.shift = decoder.compressed() ? 1 : 2;
+        this.count = text == null ? 0 : (int) ((text.size & 0xffffffffL) >> shift);
+        build();
+    }
+
+    public int blockCount() {
+        return blockStart.length - 1;
+    }
+
+    public int blockAddress(int block) {
+        return textAddr + (blockStart[block] << shift);
+    }
+
+    // number of instructions in the block
+    public int blockLength(int block) {
+        return blockLength[block];
+    }
+
+    public int blockFunction(int block) {
+        return blockFunction[block];
+    }
+
+    public int[] successors(int block) {
+        return Arrays.copyOfRange(succ, succStart[block], succStart[block + 1]);
+    }
+
+    public int[] predecessors(int block) {
+        return Arrays.copyOfRange(pred, predStart[block], predStart[block + 1]);
+    }
+
+    // block that holds addr, -1 outside .text
+    public int blockAt(int addr) {
+        int idx = instructionIndex(addr);
+        if (idx < 0) {
+            return -1;
+        }
+        int block = Arrays.binarySearch(blockStart, 0, blockCount(), idx);
+        return block >= 0 ? block : -block - 2;
+    }
+
+    public int[] callees(int function) {
+        return Arrays.copyOfRange(callee, callStart[function], callStart[function + 1]);
+    }
+
+    public int indirectCalls(int function) {
+        return indirectCalls[function];
+    }
+
+    private void build() {
+        // a 4-byte instruction in the last 2-byte slot of a cut-off .text marks the slot after count
+        long[] leaders = new long[(count + 65) / 64];
+        long[] heads = new long[(count + 65) / 64]; // slots where an instruction starts
+        Instruction insn = new Instruction();
+        mark(leaders, 0);
+        for (int s = 0; s < functions.size(); s++) {
+            mark(leaders, instructionIndex(functions.address(s)));
+        }
+        for (int i = 0; i < count; i += insn.length >> shift) {
+            decode(i, insn);
+            mark(heads, i);
+            int next = i + (insn.length >> shift);
+            if (insn.format == Instruction.FORMAT_BRANCH || insn.format == Instruction.FORMAT_JUMP) {
+                mark(leaders, instructionIndex(textAddr + (i << shift) + insn.imm));
+                mark(leaders, next);
+            } else if (indirect(insn)) {
+                mark(leaders, next);
+            }
+        }
+
+        // a target in the middle of a 4-byte instruction does not start a block
+        IntList starts = new IntList();
+        for (int i = 0; i < count; i++) {
+            if ((leaders[i >>> 6] & heads[i >>> 6] & (1L << i)) != 0) {
+                starts.add(i);
+            }
+        }
+        starts.add(count);
+        blockStart = starts.toArray();
+        int blocks = blockCount();
+
+        succStart = new int[blocks + 1];
+        IntList edges = new IntList(blocks * 2);
+        IntList callers = new IntList();
+        IntList callees = new IntList();
+        blockFunction = new int[blocks];
+        indirectCalls = new int[functions.size()];
+        blockLength = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            succStart[b] = edges.size();
+            blockFunction[b] = functionAt(blockAddress(b));
+            // calls can sit anywhere in a block, only the last instruction decides the edges
+            int last = blockStart[b];
+            for (int i = blockStart[b]; i < blockStart[b + 1]; i += insn.length >> shift) {
+                decode(i, insn);
+                last = i;
+                blockLength[b]++;
+                boolean call = (insn.format == Instruction.FORMAT_JUMP || indirect(insn)) && insn.rd != 0;
+                if (call && blockFunction[b] >= 0) {
+                    if (indirect(insn)) {
+                        indirectCalls[blockFunction[b]]++;
+                    } else if (insn.rd == RA) {
+                        int target = functionAt(textAddr + (i << shift) + insn.imm);
+                        if (target >= 0) {
+                            callers.add(blockFunction[b]);
+                            callees.add(target);
+                        }
+                    }
+                }
+            }
+            boolean fallthrough = b + 1 < blocks;
+            if (insn.format == Instruction.FORMAT_BRANCH || insn.format == Instruction.FORMAT_JUMP) {
+                int target = blockAt(textAddr + (last << shift) + insn.imm);
+                if (target >= 0 && (insn.format == Instruction.FORMAT_BRANCH || insn.rd == 0)) {
+                    edges.add(target);
+                }
+                fallthrough &= insn.format == Instruction.FORMAT_BRANCH || insn.rd != 0;
+            } else if (indirect(insn)) {
+                fallthrough &= insn.rd != 0;
+            }
+            if (fallthrough && (edges.size() == succStart[b] || edges.get(edges.size() - 1) != b + 1)) {
+                edges.add(b + 1);
+            }
+        }
+        succStart[blocks] = edges.size();
+        succ = edges.toArray();
+
+        predStart = new int[blocks + 1];
+        for (int target : succ) {
+            predStart[target + 1]++;
+        }
+        for (int b = 0; b < blocks; b++) {
+            predStart[b + 1] += predStart[b];
+        }
+        pred = new int[succ.length];
+        int[] fill = Arrays.copyOf(predStart, blocks);
+        for (int b = 0; b < blocks; b++) {
+            for (int e = succStart[b]; e < succStart[b + 1]; e++) {
+                pred[fill[succ[e]]++] = b;
+            }
+        }
+
+        long[] calls = new long[callers.size()];
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = ((long) callers.get(i) << 32) | callees.get(i);
+        }
+        Arrays.sort(calls);
+        callStart = new int[functions.size() + 1];
+        IntList unique = new IntList();
+        for (int i = 0; i < calls.length; i++) {
+            if (i == 0 || calls[i] != calls[i - 1]) {
+                callStart[(int) (calls[i] >>> 32) + 1]++;
+                unique.add((int) calls[i]);
+            }
+        }
+        for (int f = 0; f < functions.size(); f++) {
+            callStart[f + 1] += callStart[f];
+        }
+        callee = unique.toArray();
+    }
+
+    // digraph with one node per block and one cluster per function
+    public void writeDot(OutputStream stream) throws IOException {
+        LineWriter out = new LineWriter(stream);
+        out.append("digraph cfg {\n  node [shape=box];\n");
+        for (int b = 0; b < blockCount(); b++) {
+            out.append("  b").appendDec(b).append(" [label=\"0x").appendHex(address(blockAddress(b)), 1)
+                    .append(" (").appendDec(blockLength(b)).append(")");
+            if (blockFunction[b] >= 0) {
+                out.append("\\n").append(dotEscape(functions.name(blockFunction[b])));
+            }
+            out.append("\"];\n");
+            for (int e = succStart[b]; e < succStart[b + 1]; e++) {
+                out.append("  b").appendDec(b).append(" -> b").appendDec(succ[e]).append(";\n");
+            }
+        }
+        out.append("}\n");
+        out.flush();
+    }
+
+    public void writeCallGraphDot(OutputStream stream) throws IOException {
+        LineWriter out = new LineWriter(stream);
+        out.append("digraph calls {\n");
+        for (int f = 0; f < functions.size(); f++) {
+            out.append("  f").appendDec(f).append(" [label=\"").append(dotEscape(functions.name(f))).append("\"];\n");
+            for (int e = callStart[f]; e < callStart[f + 1]; e++) {
+                out.append("  f").appendDec(f).append(" -> f").appendDec(callee[e]).append(";\n");
+            }
+        }
+        out.append("}\n");
+        out.flush();
+    }
+
+    // {"blocks":[{"id","addr","length","function","succ","pred"}],
+    //  "functions":[{"id","name","addr","size","indirectCalls"}],"calls":[[from, to]]}
+    public void writeJson(OutputStream stream) throws IOException {
+        LineWriter out = new LineWriter(stream);
+        out.append("{\"blocks\":[");
+        for (int b = 0; b < blockCount(); b++) {
+            out.append(b == 0 ? "\n" : ",\n").append("{\"id\":").appendDec(b)
+                    .append(",\"addr\":").appendUnsigned(address(blockAddress(b)))
+                    .append(",\"length\":").appendDec(blockLength(b))
+                    .append(",\"function\":").appendDec(blockFunction[b]);
+            writeJsonArray(out.append(",\"succ\":"), succ, succStart[b], succStart[b + 1]);
+            writeJsonArray(out.append(",\"pred\":"), pred, predStart[b], predStart[b + 1]);
+            out.append('}');
+        }
+        out.append("],\n\"functions\":[");
+        for (int f = 0; f < functions.size(); f++) {
+            out.append(f == 0 ? "\n" : ",\n").append("{\"id\":").appendDec(f)
+                    .append(",\"name\":").appendJson(functions.name(f))
+                    .append(",\"addr\":").appendUnsigned(address(functions.address(f)))
+                    .append(",\"size\":").appendUnsigned(functions.symbolSize(f))
+                    .append(",\"indirectCalls\":").appendDec(indirectCalls[f]).append('}');
+        }
+        out.append("],\n\"calls\":[");
+        boolean first = true;
+        for (int f = 0; f < functions.size(); f++) {
+            for (int e = callStart[f]; e < callStart[f + 1]; e++) {
+                out.append(first ? "\n[" : ",\n[").appendDec(f).append(',').appendDec(callee[e]).append(']');
+                first = false;
+            }
+        }
+        out.append("]}\n");
+        out.flush();
+    }
+
+    private static void writeJsonArray(LineWriter out, int[] values, int from, int to) throws IOException {
+        out.append('[');
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                out.append(',');
+            }
+            out.appendDec(values[i]);
+        }
+        out.append(']');
+    }
+
+    private static String dotEscape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private int functionAt(int addr) {
+        int f = functions.containing(addr);
+        if (f < 0) {
+            // symbols without a size still own the code up to the next symbol
+            f = functions.floor(addr);
+            if (f >= 0 && functions.symbolSize(f) != 0) {
+                f = -1;
+            }
+        }
+        return f;
+    }
+
+    private long address(int addr) {
+        return addressBase | (addr & 0xffffffffL);
+    }
+
+    // slot of addr, -1 outside .text or between slots
+    private int instructionIndex(int addr) {
+        long offset = (addr & 0xffffffffL) - (textAddr & 0xffffffffL);
+        if (offset < 0 || offset >= (long) count << shift || (offset & ((1 << shift) - 1)) != 0) {
+            return -1;
+        }
+        return (int) (offset >> shift);
+    }
+
+    // jalr and the compressed c.jr and c.jalr
+    private static boolean indirect(Instruction insn) {
+        return insn.mnemonic == JALR || insn.format == Instruction.FORMAT_RS;
+    }
+
+    private static void mark(long[] leaders, int idx) {
+        if (idx >= 0) {
+            leaders[idx >>> 6] |= 1L << idx;
+        }
+    }
+
+    private void decode(int idx, Instruction insn) {
+        int offset = textStart + (idx << shift);
+        decoder.decode(elf, offset, textEnd, insn);
+    }
+}
@@ -0,0 +1,27 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DisassemblerOptions implements Cloneable {
+    public String format = "text"; // text, jsonl or binary (see StructuredWriter), cfg-dot, cfg-json or calls-dot
+    public int threads = 1; // > 1 disassembles .text in chunks on a ForkJoinPool
+    public boolean relativeLabels = false; // show targets inside functions as func+0x1c instead of LN
+    public String section = null; // only the sections with this name, every SHF_EXECINSTR section when null
+    public List<String> symbolPatterns = new ArrayList<>(); // only FUNC symbols matching one of these globs, all if empty
+    public List<long[]> addressRanges = new ArrayList<>(); // only these [from, to) addresses, all if empty
+    public Path cacheDir = null; // per-function listing cache, off when null
+    public long cacheSize = 256L << 20; // bytes the cache directory may hold
+    public int workers = Runtime.getRuntime().availableProcessors(); // files processed at once by Batch
+    public InstructionStats stats = null; // filled with the per-function instruction mix when set
+    public Metrics metrics = null; // filled with phase timings when set
+    public Path statsFile = null, metricsFile = null; // where Main writes the two above, directories for Batch
+
+    // the same settings; the lists are shared
+    public DisassemblerOptions copy() {
+        try {
+            return (DisassemblerOptions) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// On-disk store of formatted listing pieces, one file per key. A hit refreshes the file's
+// modification time, so evict() can drop the least recently used entries first.
+public class DisassemblyCache {
+    private final Path dir;
+    private final long maxBytes;
+    public final AtomicLong hits = new AtomicLong();
+    public final AtomicLong misses = new AtomicLong();
+
+    public DisassemblyCache(Path dir, long maxBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+    }
+
+    public byte[] get(byte[] key) {
+        Path entry = dir.resolve(HexFormat.of().formatHex(key));
+        try {
+            byte[] text = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return text;
+        } catch (IOException e) {
+            // missing or concurrently evicted
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(byte[] key, byte[] text) throws IOException {
+        String name = HexFormat.of().formatHex(key);
+        Path tmp = Files.createTempFile(dir, name, ".tmp");
+        Files.write(tmp, text);
+        try {
+            Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // deletes the least recently used entries until the cache fits into maxBytes
+    public void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(Files::isRegularFile).forEach(entries::add);
+        }
+        long total = 0;
+        List<long[]> stats = new ArrayList<>(); // {last modified, size, position in entries}
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                long size = Files.size(entries.get(i));
+                stats.add(new long[]{Files.getLastModifiedTime(entries.get(i)).toMillis(), size, i});
+                total += size;
+            } catch (NoSuchFileException e) {
+                // evicted by another process
+            }
+        }
+        stats.sort(Comparator.comparingLong(entry -> entry[0]));
+        for (int i = 0; i < stats.size() && total > maxBytes; i++) {
+            Files.deleteIfExists(entries.get((int) stats.get(i)[2]));
+            total -= stats.get(i)[1];
+        }
+    }
+}
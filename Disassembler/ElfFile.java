@@ -0,0 +1,440 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+// Library view of a RISC-V ELF file, 32 or 64-bit, either byte order. Only the headers are read up
+// front: the constructor checks that the section header table and the contents of every section lie
+// inside the file, so a broken or hostile file is rejected after O(sections) work and nothing later
+// reads past its end. Section headers, symbols and code are decoded when they are asked for. Not
+// thread-safe.
+// The listing keeps addresses inside .text as 32-bit ints: for ELF64 the upper half of the .text
+// address (addressBase) is put back when they are printed, and FUNC symbols outside that 4 GB
+// window do not label anything.
+public class ElfFile {
+    public static final int SECTION_HEADER_SIZE = 40; // size of an ELF32 section header in bytes
+    public static final int SYMBOL_SIZE = 16; // size of an ELF32 symbol in bytes
+    public static final int FLAGS_OFFSET = 36; // e_flags of ELF32
+    public static final int EF_RISCV_RVC = 0x1; // e_flags bit of code with compressed instructions
+    public static final long SHF_EXECINSTR = 0x4; // sh_flags bit of sections that hold code
+    public static final int SHT_SYMTAB = 2; // sh_type of symbol tables
+    public static final int SHT_NOBITS = 8; // sections that take no space in the file
+    public static final long SHF_ALLOC = 0x2; // sh_flags bit of sections that occupy memory
+    public static final int ET_REL = 1; // e_type of relocatable object files
+    private static final long WINDOW = 1L << 32; // end of the addresses a relocatable file is laid out in
+    private final ByteBuffer elf;
+    private final ElfReader reader;
+    private List<ElfSectionHeader> sections;
+    private ElfSectionHeader text, symtab, strtab;
+    private List<ElfSectionHeader> codeSections;
+    private StringTable sectionNames, symbolNames;
+    private long[] layoutAddrs; // layoutAddr of each section of a relocatable file, null for the others
+    private SymbolTable symbolTable;
+    private SymbolIndex functions;
+
+    public ElfFile(ByteBuffer elf) throws UnsupportedFileFormatException {
+        this.elf = elf.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (!(this.elf.limit() >= 4 &&
+                getByte(0) == 0x7f &&
+                getByte(1) == 0x45 &&
+                getByte(2) == 0x4c &&
+                getByte(3) == 0x46)) {
+            throw new UnsupportedFileFormatException("File is not ELF");
+        }
+        if (this.elf.limit() < 16) {
+            throw new UnsupportedFileFormatException("ELF identification is truncated: " + this.elf.limit() + " bytes");
+        }
+        if (!(getByte(4) == 1 || getByte(4) == 2)) {
+            throw new UnsupportedFileFormatException("File is neither 32 nor 64-bit");
+        }
+        if (!(getByte(5) == 1 || getByte(5) == 2)) {
+            throw new UnsupportedFileFormatException("File is neither little nor big endian");
+        }
+        reader = ElfReader.of(this.elf, getByte(4) == 2, getByte(5) == 2);
+        if (this.elf.limit() < reader.headerSize()) {
+            throw new UnsupportedFileFormatException("ELF header is truncated: " + this.elf.limit() + " of "
+                    + reader.headerSize() + " bytes");
+        }
+        if (!(reader.machine() == 0xf3)) {
+            throw new UnsupportedFileFormatException("File is not RISC-V");
+        }
+        checkSections();
+    }
+
+    // Bounds of everything that is read later: the section header table, the contents of each section
+    // but SHT_NOBITS ones and the whole entries of .symtab. Names are bounded by StringTable.
+    private void checkSections() throws UnsupportedFileFormatException {
+        ElfReader reader = this.reader;
+        int count = reader.sectionCount();
+        if (count == 0) {
+            sectionNames = new StringTable(elf, 0, 0);
+            return;
+        }
+        int headerSize = reader.sectionHeaderSize();
+        if (reader.declaredSectionHeaderSize() != headerSize) {
+            throw new UnsupportedFileFormatException("Section header size is " + reader.declaredSectionHeaderSize()
+                    + " bytes, expected " + headerSize);
+        }
+        long limit = elf.limit();
+        long table = reader.sectionTableOffset();
+        if (!fits(table, (long) count * headerSize)) {
+            throw new UnsupportedFileFormatException(String.format(
+                    "Section header table at 0x%x with %d entries ends past the end of the file (%d bytes)",
+                    table, count, limit));
+        }
+        int namesIndex = reader.sectionNamesIndex();
+        if (namesIndex >= count) {
+            throw new UnsupportedFileFormatException("Section name table index " + namesIndex
+                    + " is out of range, there are " + count + " sections");
+        }
+        // every section of an object file starts at 0, so labels shared by address would collide: the
+        // allocated ones are laid out one after another from 0 instead, and have to end in the 4 GB window
+        boolean relocatable = reader.fileType() == ET_REL;
+        long[] layout = relocatable ? new long[count] : null;
+        long next = 0;
+        for (int idx = 0; idx < count; idx++) {
+            int at = (int) table + idx * headerSize;
+            int type = reader.sectionType(at);
+            long offset = reader.sectionOffset(at);
+            long size = reader.sectionSize(at);
+            if (relocatable && (reader.sectionFlags(at) & SHF_ALLOC) != 0) {
+                long align = reader.sectionAddrAlign(at);
+                align = Long.compareUnsigned(align, WINDOW) > 0 ? WINDOW : Math.max(align, 1);
+                next = (next + align - 1) / align * align;
+                if (Long.compareUnsigned(size, WINDOW - next) > 0) {
+                    throw new UnsupportedFileFormatException(String.format(
+                            "Section %d with size 0x%x laid out at 0x%x ends past 4 GB", idx, size, next));
+                }
+                layout[idx] = next;
+                next += size;
+            }
+            if (type != SHT_NOBITS && !fits(offset, size)) {
+                throw new UnsupportedFileFormatException(String.format(
+                        "Section %d at 0x%x with size 0x%x ends past the end of the file (%d bytes)",
+                        idx, offset, size, limit));
+            }
+            if (type == SHT_SYMTAB && size % reader.symbolEntrySize() != 0) {
+                throw new UnsupportedFileFormatException(String.format(
+                        "Size 0x%x of symbol table %d is not a multiple of the %d byte entry size",
+                        size, idx, reader.symbolEntrySize()));
+            }
+            if (idx == namesIndex) {
+                if (type == SHT_NOBITS) {
+                    throw new UnsupportedFileFormatException("Section name table " + idx + " has no contents");
+                }
+                sectionNames = new StringTable(elf, (int) offset, (int) size);
+            }
+        }
+        layoutAddrs = layout;
+    }
+
+    // whether [offset, offset + size) lies inside the file, both unsigned
+    private boolean fits(long offset, long size) {
+        long limit = elf.limit();
+        return Long.compareUnsigned(offset, limit) <= 0 && Long.compareUnsigned(size, limit - offset) <= 0;
+    }
+
+    public static ElfFile open(Path path) throws IOException, UnsupportedFileFormatException {
+        return new ElfFile(Main.map(path));
+    }
+
+    // the whole file, little-endian like the instructions in it, offsets are file offsets
+    public ByteBuffer buffer() {
+        return elf;
+    }
+
+    // header, section and symbol fields in the class and byte order of this file
+    public ElfReader reader() {
+        return reader;
+    }
+
+    public boolean is64() {
+        return reader.is64();
+    }
+
+    // e_entry
+    public long entry() {
+        return reader.entry();
+    }
+
+    // whether .text mixes 2-byte RVC instructions in, as e_flags says
+    public boolean compressed() {
+        return (reader.flags() & EF_RISCV_RVC) != 0;
+    }
+
+    // RV64 for ELF64 files, RV32 otherwise
+    public RISCVDecoder decoder() {
+        return RISCVDecoder.of(is64() ? 64 : 32, compressed());
+    }
+
+    // upper half of the .text address (of the first code section without .text), which the 32-bit
+    // addresses of the listing share
+    public long addressBase() {
+        ElfSectionHeader text = text();
+        if (text == null && !codeSections().isEmpty()) {
+            text = codeSections.get(0);
+        }
+        return text == null ? 0 : text.layoutAddr & ~0xffffffffL;
+    }
+
+    public List<ElfSectionHeader> sections() {
+        if (sections == null) {
+            parseSectionHeaderTable();
+        }
+        return sections;
+    }
+
+    // the last section with this name, null if there is none
+    public ElfSectionHeader section(String name) {
+        ElfSectionHeader res = null;
+        for (ElfSectionHeader header : sections()) {
+            if (header.name.equals(name)) {
+                res = header;
+            }
+        }
+        return res;
+    }
+
+    public ElfSectionHeader text() {
+        sections();
+        return text;
+    }
+
+    // sections with SHF_EXECINSTR and contents in the file, in section table order
+    public List<ElfSectionHeader> codeSections() {
+        sections();
+        return codeSections;
+    }
+
+    // what gets disassembled: every code section, or every section called name with contents in the
+    // file when name is not null
+    public List<ElfSectionHeader> codeSections(String name) {
+        if (name == null) {
+            return codeSections();
+        }
+        List<ElfSectionHeader> res = new ArrayList<>();
+        for (ElfSectionHeader header : sections()) {
+            if (header.name.equals(name) && header.type != SHT_NOBITS) {
+                res.add(header);
+            }
+        }
+        return res;
+    }
+
+    public int symbolCount() {
+        sections();
+        int entrySize = reader.symbolEntrySize();
+        return symtab == null ? 0 : (symtab.size + entrySize - 1) / entrySize;
+    }
+
+    // file offset of a .symtab entry
+    public int symbolEntry(int idx) {
+        return symtab.offset + idx * reader.symbolEntrySize();
+    }
+
+    // .symtab in columns, decoded on the first call
+    public SymbolTable symbolTable() {
+        if (symbolTable == null) {
+            int count = symbolCount();
+            symbolTable = new SymbolTable(reader, count == 0 ? 0 : symtab.offset, count, symbolNames);
+        }
+        return symbolTable;
+    }
+
+    // one .symtab entry as an object with its fields named
+    public ElfSymbol symbol(int idx) {
+        SymbolTable symbols = symbolTable();
+        ElfSymbol symbol = new ElfSymbol();
+        symbol.name = symbols.name(idx);
+        symbol.value = symbols.value(idx);
+        symbol.size = symbols.size(idx);
+        symbol.type = getSymbolType(symbols.type(idx));
+        symbol.bind = getSymbolBind(symbols.bind(idx));
+        symbol.vis = getSymbolVis(symbols.vis(idx));
+        symbol.index = getSymbolIndex(symbols.shndx[idx]);
+        return symbol;
+    }
+
+    // list view over .symtab that decodes entries on access
+    public List<ElfSymbol> symbols() {
+        return new AbstractList<>() {
+            @Override
+            public ElfSymbol get(int idx) {
+                return symbol(idx);
+            }
+
+            @Override
+            public int size() {
+                return symbolCount();
+            }
+        };
+    }
+
+    // FUNC symbols, they label the listing
+    public SymbolIndex functions() {
+        if (functions == null) {
+            SymbolTable symbols = symbolTable();
+            functions = new SymbolIndex();
+            long base = addressBase();
+            boolean relocatable = reader.fileType() == ET_REL;
+            for (int idx = 0; idx < symbols.count; idx++) {
+                long value = symbols.value(idx);
+                int shndx = symbols.shndx[idx];
+                if (relocatable && shndx > 0 && shndx < sections.size()) {
+                    // values in relocatable files are offsets into their section
+                    value += sections.get(shndx).layoutAddr;
+                }
+                if (symbols.type(idx) == 2 && (value & ~0xffffffffL) == base) {
+                    // FUNC
+                    functions.add((int) value, (int) symbols.size(idx), symbols.name(idx));
+                }
+            }
+            functions.build();
+        }
+        return functions;
+    }
+
+    public void disassemble(long fromAddr, long toAddr, OutputStream out) throws IOException {
+        disassemble(fromAddr, toAddr, out, new DisassemblerOptions());
+    }
+
+    // Writes the listing of the .text instructions in [fromAddr, toAddr). Only this range is decoded,
+    // so LN labels are numbered by their first use inside it. With compressed code fromAddr should
+    // be the start of an instruction. Addresses are unsigned, ELF32 ones may be passed as ints.
+    public void disassemble(long fromAddr, long toAddr, OutputStream out, DisassemblerOptions options) throws IOException {
+        ElfSectionHeader text = text();
+        if (text == null) {
+            return;
+        }
+        long mask = is64() ? -1L : 0xffffffffL;
+        long textAddr = text.layoutAddr;
+        long from = Long.compareUnsigned(fromAddr & mask, textAddr) > 0 ? fromAddr & mask : textAddr;
+        long textEnd = textAddr + (text.size & 0xffffffffL);
+        long to = Long.compareUnsigned(toAddr & mask, textEnd) < 0 ? toAddr & mask : textEnd;
+        long align = compressed() ? 2 : 4; // instructions start at multiples of this from .text
+        from = textAddr + ((from - textAddr + align - 1) & -align);
+        if (Long.compareUnsigned(from, to) >= 0) {
+            return;
+        }
+        LineWriter writer = new LineWriter(out);
+        RISCVParser parser = new RISCVParser(this, writer, functions(), text.offset + (int) (from - textAddr),
+                (int) (to - from), from, options);
+        parser.parseText();
+        writer.flush();
+    }
+
+    private void parseSectionHeaderTable() {
+        sections = new ArrayList<>();
+        codeSections = new ArrayList<>();
+        ElfReader reader = this.reader;
+        int headerSize = reader.sectionHeaderSize();
+        int sectionTablePosition = (int) reader.sectionTableOffset();
+        int sectionTableSize = reader.sectionCount();
+        for (int i = sectionTablePosition; i < sectionTablePosition + sectionTableSize * headerSize; i += headerSize) {
+            ElfSectionHeader header = new ElfSectionHeader();
+            header.name = getSectionName(reader.sectionName(i));
+            header.type = reader.sectionType(i);
+            header.flags = reader.sectionFlags(i);
+            header.addr = reader.sectionAddr(i);
+            header.offset = (int) reader.sectionOffset(i);
+            header.size = (int) reader.sectionSize(i);
+            header.link = reader.sectionLink(i);
+            header.info = reader.sectionInfo(i);
+            header.addralign = reader.sectionAddrAlign(i);
+            header.entsize = reader.sectionEntrySize(i);
+            header.layoutAddr = layoutAddrs == null ? header.addr : layoutAddrs[sections.size()];
+            if (header.type == SHT_SYMTAB) {
+                symtab = header;
+            }
+            if (header.type == SHT_NOBITS) {
+                // no contents to list or to look names up in
+            } else if (header.name.equals(".text")) {
+                text = header;
+            } else if (header.name.equals(".strtab")) {
+                strtab = header;
+            }
+            if ((header.flags & SHF_EXECINSTR) != 0 && header.type != SHT_NOBITS && header.size != 0) {
+                codeSections.add(header);
+            }
+            sections.add(header);
+        }
+        symbolNames = strtab == null ? new StringTable(elf, 0, 0) : new StringTable(elf, strtab.offset, strtab.size);
+    }
+
+    public static String getSymbolType (int type) {
+        return switch (type) {
+            case 0 -> "NOTYPE";
+            case 1 -> "OBJECT";
+            case 2 -> "FUNC";
+            case 3 -> "SECTION";
+            case 4 -> "FILE";
+            case 5 -> "COMMON";
+            case 6 -> "TLS";
+            case 10 -> "LOOS";
+            case 12 -> "HIOS";
+            case 13 -> "LOPROC";
+            case 15 -> "HIPROC";
+            default -> "";
+        };
+    }
+
+    public static String getSymbolBind (int bind) {
+        return switch (bind) {
+            case 0 -> "LOCAL";
+            case 1 -> "GLOBAL";
+            case 2 -> "WEAK";
+            case 10 -> "LOOS";
+            case 12 -> "HIOS";
+            case 13 -> "LOPROC";
+            case 15 -> "HIPROC";
+            default -> "";
+        };
+    }
+
+    public static String getSymbolVis (int vis) {
+        return switch (vis) {
+            case 0 -> "DEFAULT";
+            case 1 -> "INTERNAL";
+            case 2 -> "HIDDEN";
+            case 3 -> "PROTECTED";
+            case 4 -> "EXPORTED";
+            case 5 -> "SINGLETON";
+            case 6 -> "ELIMINATE";
+            default -> "";
+        };
+    }
+
+    public static String getSymbolIndex (int index) {
+        String name = getReservedIndex(index);
+        return name != null ? name : Integer.toString(index);
+    }
+
+    // name of a reserved st_shndx value, null for the index of a section
+    public static String getReservedIndex(int index) {
+        return switch (index) {
+            case 0 -> "UNDEF";
+            case 0xff00 -> "LORESERVE";
+            case 0xff01 -> "AFTER";
+            case 0xff02 -> "AMD64_LCOMMON";
+            case 0xff1f -> "HIPROC";
+            case 0xff20 -> "LOOS";
+            case 0xff3f -> "LOSUNW";
+            case 0xfff1 -> "ABS";
+            case 0xfff2 -> "COMMON";
+            case 0xffff -> "XINDEX";
+            default -> null;
+        };
+    }
+
+    private String getSectionName(int offset) {
+        return sectionNames.get(offset);
+    }
+
+    private int getByte(int idx) {
+        return elf.get(idx) & 0xff;
+    }
+}
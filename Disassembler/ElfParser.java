@@ -1,192 +1,98 @@
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 
+// writes the full listing of a file: every code section (.text and the others with SHF_EXECINSTR)
+// followed by .symtab
 public class ElfParser {
-    public static final int SECTION_HEADER_SIZE = 40; // size of section header in bytes
-    public static final int SYMBOL_SIZE = 16; // size of symbol in symbol table in bytes
     public static final String SYMBOL_TABLE_OUTPUT_HEADER = "\n.symtab\nSymbol Value          	Size Type  	  Bind 	   Vis   	 Index Name\n";
-    public static final String SYMBOL_TABLE_LINE_TEMPLATE = "[%4d] 0x%-13X %5d %-8s %-8s %-8s %6s %s\n";
-    private final int[] elf;
-    private final OutputStream out;
-    private int shStringTableStart, stringTableStart, stringTableSize;
-    private int symbolTableStart, symbolTableSize;
-    private int textStart, textSize, textAddr;
-    private final Map<Integer, String> labels;
-    private String symtab;
+    private final ElfFile file;
+    private final LineWriter out;
+    private List<ElfSectionHeader> code;
+    private SymbolIndex symbols;
+    private final DisassemblerOptions options;
+    private final Metrics metrics;
 
-    public ElfParser(List<Integer> elf, OutputStream out) {
-        this.elf = new int[elf.size()];
-        for (int i = 0; i < elf.size(); i++) {
-            this.elf[i] = elf.get(i);
-        }
-        this.out = out;
-        labels = new HashMap<>();
-    }
-
-    public void parse() throws UnsupportedFileFormatException, IOException {
-        if (!(elf[0] == 0x7f &&
-                elf[1] == 0x45 &&
-                elf[2] == 0x4c &&
-                elf[3] == 0x46)) {
-            throw new UnsupportedFileFormatException("File is not ELF");
-        }
-        if (!(elf[4] == 1)) {
-            throw new UnsupportedFileFormatException("File is not 32-bit");
-        }
-        if (!(elf[18] == 0xf3 && elf[19] == 0x00)) {
-            throw new UnsupportedFileFormatException("File is not RISC-V");
-        }
-        if (!(elf[5] == 1)) {
-            throw new UnsupportedFileFormatException("File is not little endian");
-        }
-        parseSectionHeaderTable(); // we need .text .symtab .strtab sections
-        parseSymbolTable();
-        parseText();
-        out.write(symtab.getBytes());
-    }
-
-    private void parseSectionHeaderTable() {
-        int sectionTablePosition = get4Bytes(32);
-        int sectionTableSize = get2Bytes(48);
-        shStringTableStart = get4Bytes(sectionTablePosition + get2Bytes(50) * SECTION_HEADER_SIZE + 16);
-        for (int i = sectionTablePosition; i < sectionTablePosition + sectionTableSize * SECTION_HEADER_SIZE; i += SECTION_HEADER_SIZE) {
-            ElfSectionHeader header = new ElfSectionHeader();
-            header.name = getSectionName(get4Bytes(i));
-            header.type = get4Bytes(i + 4);
-            header.offset = get4Bytes(i + 16);
-            header.size = get4Bytes(i + 20);
-            if (header.type == 0x2) {
-                symbolTableStart = header.offset;
-                symbolTableSize = header.size;
-            }
-            if (header.name.equals(".text")) {
-                textStart = header.offset;
-                textSize = header.size;
-                textAddr = get4Bytes(i + 12);
-            } else if (header.name.equals(".strtab")) {
-                stringTableStart = header.offset;
-                stringTableSize = header.size;
-            }
-        }
+    public ElfParser(ByteBuffer elf, OutputStream out) throws UnsupportedFileFormatException {
+        this(elf, out, new DisassemblerOptions());
     }
 
-    private void parseText() throws IOException {
-        out.write(".text\n".getBytes());
-        RISCVParser parser = new RISCVParser(elf, out, labels, textStart, textSize, textAddr);
-        parser.parseText();
+    public ElfParser(ByteBuffer elf, OutputStream out, DisassemblerOptions options) throws UnsupportedFileFormatException {
+        this.file = new ElfFile(elf);
+        this.out = new LineWriter(options.metrics == null ? out : options.metrics.timed(out));
+        this.options = options;
+        this.metrics = options.metrics == null ? new Metrics() : options.metrics;
     }
 
-    private void parseSymbolTable() {
-        StringBuilder resToWrite = new StringBuilder();
-        resToWrite.append(SYMBOL_TABLE_OUTPUT_HEADER);
-        int idx = 0;
-        for (int i = symbolTableStart; i < symbolTableStart + symbolTableSize; i += SYMBOL_SIZE) {
-            ElfSymbol symbol = new ElfSymbol();
-            symbol.name = getSymbolName(get4Bytes(i));
-            symbol.value = get4Bytes(i + 4);
-            symbol.size = get4Bytes(i + 8);
-            int info = elf[i + 12];
-            symbol.type = getSymbolType((info) & 0xf);
-            symbol.bind = getSymbolBind((info) >> 4);
-            symbol.vis = getSymbolVis(elf[i + 13]);
-            symbol.index = getSymbolIndex(get2Bytes(i + 14));
-            if (Objects.equals(symbol.type, "FUNC")) {
-                labels.put(symbol.value, symbol.name);
-            }
-            resToWrite.append(String.format(SYMBOL_TABLE_LINE_TEMPLATE, idx, symbol.value, symbol.size, symbol.type,
-                    symbol.bind, symbol.vis, symbol.index, symbol.name));
-            idx++;
+    public void parse() throws IOException {
+        switch (options.format) {
+            case "text" -> writeListing();
+            case "cfg-dot" -> new ControlFlowGraph(file).writeDot(out.stream());
+            case "cfg-json" -> new ControlFlowGraph(file).writeJson(out.stream());
+            case "calls-dot" -> new ControlFlowGraph(file).writeCallGraphDot(out.stream());
+            default -> new StructuredWriter(file, out.stream(), options).write();
         }
-        symtab = resToWrite.toString();
-    }
-
-    private String getSymbolType (int type) {
-        return switch (type) {
-            case 0 -> "NOTYPE";
-            case 1 -> "OBJECT";
-            case 2 -> "FUNC";
-            case 3 -> "SECTION";
-            case 4 -> "FILE";
-            case 5 -> "COMMON";
-            case 6 -> "TLS";
-            case 10 -> "LOOS";
-            case 12 -> "HIOS";
-            case 13 -> "LOPROC";
-            case 15 -> "HIPROC";
-            default -> "";
-        };
-    }
-
-    private String getSymbolBind (int bind) {
-        return switch (bind) {
-            case 0 -> "LOCAL";
-            case 1 -> "GLOBAL";
-            case 2 -> "WEAK";
-            case 10 -> "LOOS";
-            case 12 -> "HIOS";
-            case 13 -> "LOPROC";
-            case 15 -> "HIPROC";
-            default -> "";
-        };
-    }
-
-    private String getSymbolVis (int vis) {
-        return switch (vis) {
-            case 0 -> "DEFAULT";
-            case 1 -> "INTERNAL";
-            case 2 -> "HIDDEN";
-            case 3 -> "PROTECTED";
-            case 4 -> "EXPORTED";
-            case 5 -> "SINGLETON";
-            case 6 -> "ELIMINATE";
-            default -> "";
-        };
     }
 
-    private String getSymbolIndex (int index) {
-        return switch (index) {
-            case 0 -> "UNDEF";
-            case 0xff00 -> "LORESERVE";
-            case 0xff01 -> "AFTER";
-            case 0xff02 -> "AMD64_LCOMMON";
-            case 0xff1f -> "HIPROC";
-            case 0xff20 -> "LOOS";
-            case 0xff3f -> "LOSUNW";
-            case 0xfff1 -> "ABS";
-            case 0xfff2 -> "COMMON";
-            case 0xffff -> "XINDEX";
-            default -> Integer.toString(index);
-        };
+    private void writeListing() throws IOException {
+        parseSectionHeaderTable(); // we need the code sections, .symtab and .strtab
+        parseSymbolTable();
+        parseText();
+        writeSymbolTable();
+        out.flush();
     }
 
-    private String getSymbolName (int offset) {
-        if (offset == 0) {
-            return "";
-        }
-        StringBuilder name = new StringBuilder();
-        for (int idx = stringTableStart + offset; elf[idx] != 0; idx++) {
-            name.append((char) elf[idx]);
-        }
-        return name.toString();
+    void parseSectionHeaderTable() {
+        long start = metrics.start();
+        code = file.codeSections(options.section);
+        metrics.stop(Metrics.SECTIONS, start);
     }
 
-    private String getSectionName(int offset) {
-        StringBuilder name = new StringBuilder();
-        for (int idx = shStringTableStart + offset; elf[idx] != 0; idx++) {
-            name.append((char) elf[idx]);
+    private void parseText() throws IOException {
+        RISCVParser parser = new RISCVParser(file, out, symbols, code, options);
+        if (parser.ranges().length == 0) {
+            // sections are named only when something in them is listed, but the listing has always had
+            // a .text part, even an empty one
+            out.append(options.section == null ? ".text" : options.section).append('\n');
         }
-        return name.toString();
+        parser.parseText();
     }
 
-    private int get4Bytes(int idx) {
-        return elf[idx + 3] * 256 * 256 * 256 + elf[idx + 2] * 256 * 256 + elf[idx + 1] * 256 + elf[idx];
+    void parseSymbolTable() {
+        long start = metrics.start();
+        symbols = file.functions();
+        metrics.stop(Metrics.SYMTAB, start);
     }
 
-    private int get2Bytes(int idx) {
-        return elf[idx + 1] * 256 + elf[idx];
+    // one "[%4d] 0x%-13X %5d %-8s %-8s %-8s %6s %s\n" line per symbol, straight from the columns
+    void writeSymbolTable() throws IOException {
+        long start = metrics.start();
+        out.append(SYMBOL_TABLE_OUTPUT_HEADER);
+        SymbolTable symbols = file.symbolTable();
+        boolean is64 = file.is64();
+        for (int idx = 0; idx < symbols.count; idx++) {
+            out.append('[').appendDec(idx, 4).append("] 0x").appendHexUpperLeft(symbols.value(idx), 13).append(' ');
+            // ELF32 sizes have always been printed as %5d
+            if (is64) {
+                out.appendUnsigned(symbols.size(idx), 5);
+            } else {
+                out.appendDec((int) symbols.size(idx), 5);
+            }
+            out.append(' ')
+                    .appendLeft(ElfFile.getSymbolType(symbols.type(idx)), 8).append(' ')
+                    .appendLeft(ElfFile.getSymbolBind(symbols.bind(idx)), 8).append(' ')
+                    .appendLeft(ElfFile.getSymbolVis(symbols.vis(idx)), 8).append(' ');
+            String reserved = ElfFile.getReservedIndex(symbols.shndx[idx]);
+            if (reserved != null) {
+                out.appendRight(reserved, 6);
+            } else {
+                out.appendDec(symbols.shndx[idx], 6);
+            }
+            out.append(' ');
+            symbols.writeName(idx, out);
+            out.append('\n');
+        }
+        metrics.stop(Metrics.SYMTAB, start);
     }
 }
@@ -0,0 +1,491 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Fields of the ELF header, section headers and symbols for one ELF class and byte order. ElfFile
+// picks one of the four final classes from e_ident when it opens a file, so the loops over
+// sections and symbols call a single implementation with the offsets and the byte order fixed in
+// it. Offsets are file offsets; 64-bit addresses and sizes come back as long, the 32-bit ones
+// zero-extended. Instructions are always little-endian and are not read through here.
+public abstract class ElfReader {
+    private static final VarHandle LE16 = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LE32 = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LE64 = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BE16 = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BE32 = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle BE64 = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    protected final ByteBuffer elf;
+
+    protected ElfReader(ByteBuffer elf) {
+        this.elf = elf;
+    }
+
+    // e_ident[EI_CLASS] is 1 for ELF32 and 2 for ELF64, e_ident[EI_DATA] 1 for little and 2 for big endian
+    public static ElfReader of(ByteBuffer elf, boolean is64, boolean bigEndian) {
+        if (is64) {
+            return bigEndian ? new Elf64BE(elf) : new Elf64LE(elf);
+        }
+        return bigEndian ? new Elf32BE(elf) : new Elf32LE(elf);
+    }
+
+    public final int u8(int at) {
+        return elf.get(at) & 0xff;
+    }
+
+    public abstract int u16(int at);
+
+    public abstract int u32(int at);
+
+    public abstract long u64(int at);
+
+    public abstract boolean is64();
+
+    public abstract boolean bigEndian();
+
+    // ELF header
+    public final int fileType() {
+        return u16(16);
+    }
+
+    public abstract int machine();
+
+    public abstract long entry();
+
+    public abstract long sectionTableOffset();
+
+    public abstract int flags();
+
+    public abstract int headerSize();
+
+    public abstract int sectionHeaderSize();
+
+    // e_shentsize, which has to be sectionHeaderSize for the offsets above to hold
+    public abstract int declaredSectionHeaderSize();
+
+    public abstract int sectionCount();
+
+    public abstract int sectionNamesIndex();
+
+    // section header at a file offset
+    public abstract int sectionName(int at);
+
+    public abstract int sectionType(int at);
+
+    public abstract long sectionFlags(int at);
+
+    public abstract long sectionAddr(int at);
+
+    public abstract long sectionOffset(int at);
+
+    public abstract long sectionSize(int at);
+
+    public abstract int sectionLink(int at);
+
+    public abstract int sectionInfo(int at);
+
+    public abstract long sectionAddrAlign(int at);
+
+    public abstract long sectionEntrySize(int at);
+
+    // symbol at a file offset
+    public abstract int symbolEntrySize();
+
+    public abstract int symbolName(int at);
+
+    public abstract long symbolValue(int at);
+
+    public abstract long symbolSize(int at);
+
+    public abstract int symbolInfo(int at);
+
+    public abstract int symbolOther(int at);
+
+    public abstract int symbolShndx(int at);
+
+    private abstract static class Elf32 extends ElfReader {
+        Elf32(ByteBuffer elf) {
+            super(elf);
+        }
+
+        @Override
+        public final boolean is64() {
+            return false;
+        }
+
+        @Override
+        public final int machine() {
+            return u16(18);
+        }
+
+        @Override
+        public final long entry() {
+            return u32(24) & 0xffffffffL;
+        }
+
+        @Override
+        public final long sectionTableOffset() {
+            return u32(32) & 0xffffffffL;
+        }
+
+        @Override
+        public final int flags() {
+            return u32(36);
+        }
+
+        @Override
+        public final int headerSize() {
+            return 52;
+        }
+
+        @Override
+        public final int sectionHeaderSize() {
+            return 40;
+        }
+
+        @Override
+        public final int declaredSectionHeaderSize() {
+            return u16(46);
+        }
+
+        @Override
+        public final int sectionCount() {
+            return u16(48);
+        }
+
+        @Override
+        public final int sectionNamesIndex() {
+            return u16(50);
+        }
+
+        @Override
+        public final int sectionName(int at) {
+            return u32(at);
+        }
+
+        @Override
+        public final int sectionType(int at) {
+            return u32(at + 4);
+        }
+
+        @Override
+        public final long sectionFlags(int at) {
+            return u32(at + 8) & 0xffffffffL;
+        }
+
+        @Override
+        public final long sectionAddr(int at) {
+            return u32(at + 12) & 0xffffffffL;
+        }
+
+        @Override
+        public final long sectionOffset(int at) {
+            return u32(at + 16) & 0xffffffffL;
+        }
+
+        @Override
+        public final long sectionSize(int at) {
+            return u32(at + 20) & 0xffffffffL;
+        }
+
+        @Override
+        public final int sectionLink(int at) {
+            return u32(at + 24);
+        }
+
+        @Override
+        public final int sectionInfo(int at) {
+            return u32(at + 28);
+        }
+
+        @Override
+        public final long sectionAddrAlign(int at) {
+            return u32(at + 32) & 0xffffffffL;
+        }
+
+        @Override
+        public final long sectionEntrySize(int at) {
+            return u32(at + 36) & 0xffffffffL;
+        }
+
+        @Override
+        public final int symbolEntrySize() {
+            return 16;
+        }
+
+        @Override
+        public final int symbolName(int at) {
+            return u32(at);
+        }
+
+        @Override
+        public final long symbolValue(int at) {
+            return u32(at + 4) & 0xffffffffL;
+        }
+
+        @Override
+        public final long symbolSize(int at) {
+            return u32(at + 8) & 0xffffffffL;
+        }
+
+        @Override
+        public final int symbolInfo(int at) {
+            return u8(at + 12);
+        }
+
+        @Override
+        public final int symbolOther(int at) {
+            return u8(at + 13);
+        }
+
+        @Override
+        public final int symbolShndx(int at) {
+            return u16(at + 14);
+        }
+    }
+
+    private abstract static class Elf64 extends ElfReader {
+        Elf64(ByteBuffer elf) {
+            super(elf);
+        }
+
+        @Override
+        public final boolean is64() {
+            return true;
+        }
+
+        @Override
+        public final int machine() {
+            return u16(18);
+        }
+
+        @Override
+        public final long entry() {
+            return u64(24);
+        }
+
+        @Override
+        public final long sectionTableOffset() {
+            return u64(40);
+        }
+
+        @Override
+        public final int flags() {
+            return u32(48);
+        }
+
+        @Override
+        public final int headerSize() {
+            return 64;
+        }
+
+        @Override
+        public final int sectionHeaderSize() {
+            return 64;
+        }
+
+        @Override
+        public final int declaredSectionHeaderSize() {
+            return u16(58);
+        }
+
+        @Override
+        public final int sectionCount() {
+            return u16(60);
+        }
+
+        @Override
+        public final int sectionNamesIndex() {
+            return u16(62);
+        }
+
+        @Override
+        public final int sectionName(int at) {
+            return u32(at);
+        }
+
+        @Override
+        public final int sectionType(int at) {
+            return u32(at + 4);
+        }
+
+        @Override
+        public final long sectionFlags(int at) {
+            return u64(at + 8);
+        }
+
+        @Override
+        public final long sectionAddr(int at) {
+            return u64(at + 16);
+        }
+
+        @Override
+        public final long sectionOffset(int at) {
+            return u64(at + 24);
+        }
+
+        @Override
+        public final long sectionSize(int at) {
+            return u64(at + 32);
+        }
+
+        @Override
+        public final int sectionLink(int at) {
+            return u32(at + 40);
+        }
+
+        @Override
+        public final int sectionInfo(int at) {
+            return u32(at + 44);
+        }
+
+        @Override
+        public final long sectionAddrAlign(int at) {
+            return u64(at + 48);
+        }
+
+        @Override
+        public final long sectionEntrySize(int at) {
+            return u64(at + 56);
+        }
+
+        @Override
+        public final int symbolEntrySize() {
+            return 24;
+        }
+
+        @Override
+        public final int symbolName(int at) {
+            return u32(at);
+        }
+
+        @Override
+        public final long symbolValue(int at) {
+            return u64(at + 8);
+        }
+
+        @Override
+        public final long symbolSize(int at) {
+            return u64(at + 16);
+        }
+
+        @Override
+        public final int symbolInfo(int at) {
+            return u8(at + 4);
+        }
+
+        @Override
+        public final int symbolOther(int at) {
+            return u8(at + 5);
+        }
+
+        @Override
+        public final int symbolShndx(int at) {
+            return u16(at + 6);
+        }
+    }
+
+    private static final class Elf32LE extends Elf32 {
+        Elf32LE(ByteBuffer elf) {
+            super(elf);
+        }
+
+        @Override
+        public boolean bigEndian() {
+            return false;
+        }
+
+        @Override
+        public int u16(int at) {
+            return (short) LE16.get(elf, at) & 0xffff;
+        }
+
+        @Override
+        public int u32(int at) {
+            return (int) LE32.get(elf, at);
+        }
+
+        @Override
+        public long u64(int at) {
+            return (long) LE64.get(elf, at);
+        }
+    }
+
+    private static final class Elf32BE extends Elf32 {
+        Elf32BE(ByteBuffer elf) {
+            super(elf);
+        }
+
+        @Override
+        public boolean bigEndian() {
+            return true;
+        }
+
+        @Override
+        public int u16(int at) {
+            return (short) BE16.get(elf, at) & 0xffff;
+        }
+
+        @Override
+        public int u32(int at) {
+            return (int) BE32.get(elf, at);
+        }
+
+        @Override
+        public long u64(int at) {
+            return (long) BE64.get(elf, at);
+        }
+    }
+
+    private static final class Elf64LE extends Elf64 {
+        Elf64LE(ByteBuffer elf) {
+            super(elf);
+        }
+
+        @Override
+        public boolean bigEndian() {
+            return false;
+        }
+
+        @Override
+        public int u16(int at) {
+            return (short) LE16.get(elf, at) & 0xffff;
+        }
+
+        @Override
+        public int u32(int at) {
+            return (int) LE32.get(elf, at);
+        }
+
+        @Override
+        public long u64(int at) {
+            return (long) LE64.get(elf, at);
+        }
+    }
+
+    private static final class Elf64BE extends Elf64 {
+        Elf64BE(ByteBuffer elf) {
+            super(elf);
+        }
+
+        @Override
+        public boolean bigEndian() {
+            return true;
+        }
+
+        @Override
+        public int u16(int at) {
+            return (short) BE16.get(elf, at) & 0xffff;
+        }
+
+        @Override
+        public int u32(int at) {
+            return (int) BE32.get(elf, at);
+        }
+
+        @Override
+        public long u64(int at) {
+            return (long) BE64.get(elf, at);
+        }
+    }
+}
@@ -1,6 +1,13 @@
 public class ElfSectionHeader {
     public String name;
     public int type;
+    public long flags;
+    public long addr;
     public int offset;
     public int size;
+    public int link;
+    public int info;
+    public long addralign;
+    public long entsize;
+    public long layoutAddr; // addr, except in relocatable files where the allocated sections are laid out from 0
 }
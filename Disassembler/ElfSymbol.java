@@ -1,7 +1,7 @@
 public class ElfSymbol {
     public String name;
-    public int value;
-    public int size;
+    public long value;
+    public long size;
     public String type;
     public String bind;
     public String vis;
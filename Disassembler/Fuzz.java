@@ -0,0 +1,117 @@
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+// Mutation fuzzer for untrusted input:
+//   java Fuzz [iterations] [seed]
+// Every iteration takes one of a few small SyntheticElf files (ELF32/64, either byte order, RVC, split
+// and relocatable code, code at the end of the file cut off one to three bytes into an instruction), breaks it by overwriting an ELF header, section header or symbol field with an
+// edge value, flipping random bits or truncating it, and lists it as text, jsonl, binary and cfg-json.
+// Each file must either be listed or rejected with UnsupportedFileFormatException; anything else is
+// printed and the file is saved as fuzz-<seed>-<iteration>.elf. The rate of rejected files is only
+// printed, it depends on the machine; Benchmark reject checks that rejecting does not grow with the file.
+public class Fuzz {
+    private static final String[] FORMATS = {"text", "jsonl", "binary", "cfg-json"};
+    private static final long[] EDGE_VALUES = {0, 1, 2, 0x7f, 0x80, 0xff, 0x7fff, 0xffff, 0x7fffffff, 0x80000000L,
+            0xffffffffL, Long.MAX_VALUE, -1};
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        byte[][] seeds = {
+                SyntheticElf.generate(64, 8, 2, 1),
+                SyntheticElf.generate(64, 8, 2, 2, true),
+                SyntheticElf.generate(64, 8, 2, 3, false, true, false),
+                SyntheticElf.generate(64, 8, 2, 4, true, true, true),
+                SyntheticElf.generate(64, 8, 2, 5, false, false, true, 3, false),
+                SyntheticElf.generate(64, 8, 2, 6, false, false, false, 3, true),
+                SyntheticElf.cutCode(SyntheticElf.generate(64, 8, 2, 7, false, false, false, 1, false, true), 3),
+                SyntheticElf.cutCode(SyntheticElf.generate(64, 8, 2, 8, true, false, false, 1, false, true), 1),
+                SyntheticElf.cutCode(SyntheticElf.generate(64, 8, 2, 9, false, true, true, 2, false, true), 2),
+        };
+        Random random = new Random(seed);
+        int listed = 0, rejected = 0, failed = 0;
+        long rejectTime = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            byte[] elf = mutate(seeds[random.nextInt(seeds.length)], random);
+            long begin = System.nanoTime();
+            try {
+                for (String format : FORMATS) {
+                    DisassemblerOptions options = new DisassemblerOptions();
+                    options.format = format;
+                    Main.main(ByteBuffer.wrap(elf), OutputStream.nullOutputStream(), options);
+                }
+                listed++;
+            } catch (UnsupportedFileFormatException e) {
+                rejected++;
+                rejectTime += System.nanoTime() - begin;
+            } catch (Exception | StackOverflowError e) {
+                failed++;
+                Path file = Path.of("fuzz-" + seed + "-" + i + ".elf");
+                Files.write(file, elf);
+                System.out.println(file + ": " + e);
+                StackTraceElement[] trace = e.getStackTrace();
+                for (int k = 0; k < Math.min(trace.length, 4); k++) {
+                    System.out.println("    at " + trace[k]);
+                }
+            }
+        }
+        double perSecond = iterations / ((System.nanoTime() - start) / 1e9);
+        double rejectedPerSecond = rejected / (rejectTime / 1e9);
+        System.out.printf("seed %d: %d files, %d listed, %d rejected, %d failed, %.0f files/s, %.0f rejected/s%n",
+                seed, iterations, listed, rejected, failed, perSecond, rejectedPerSecond);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    // a copy of elf with one to three mutations, sometimes cut short as well
+    public static byte[] mutate(byte[] elf, Random random) {
+        ElfFile file;
+        try {
+            file = new ElfFile(ByteBuffer.wrap(elf));
+        } catch (UnsupportedFileFormatException e) {
+            throw new IllegalArgumentException(e);
+        }
+        ElfReader reader = file.reader();
+        int headerSize = reader.headerSize();
+        int sectionTable = (int) reader.sectionTableOffset();
+        int sectionCount = reader.sectionCount();
+        ElfSectionHeader symtab = file.section(".symtab");
+        byte[] res = elf.clone();
+        int width = reader.is64() ? 8 : 4;
+        for (int n = 1 + random.nextInt(3); n > 0; n--) {
+            switch (random.nextInt(4)) {
+                case 0 -> put(res, 16 + random.nextInt(headerSize - 16) & -2, 1 << random.nextInt(4), random,
+                        reader.bigEndian());
+                case 1 -> put(res, sectionTable + random.nextInt(sectionCount) * reader.sectionHeaderSize()
+                        + random.nextInt(reader.sectionHeaderSize() / 4) * 4, random.nextBoolean() ? 4 : width,
+                        random, reader.bigEndian());
+                case 2 -> put(res, symtab.offset + random.nextInt(symtab.size / 4) * 4, random.nextBoolean() ? 4 : width,
+                        random, reader.bigEndian());
+                default -> {
+                    for (int k = 1 + random.nextInt(8); k > 0; k--) {
+                        res[random.nextInt(res.length)] ^= (byte) (1 << random.nextInt(8));
+                    }
+                }
+            }
+        }
+        return random.nextInt(5) == 0 ? Arrays.copyOf(res, random.nextInt(res.length)) : res;
+    }
+
+    // writes an edge or random value of size bytes at at, if it fits
+    private static void put(byte[] elf, int at, int size, Random random, boolean bigEndian) {
+        long value = random.nextInt(4) == 0 ? random.nextLong() : EDGE_VALUES[random.nextInt(EDGE_VALUES.length)];
+        if (random.nextBoolean()) {
+            value += random.nextInt(64) - 32;
+        }
+        for (int k = 0; k < size && at + k < elf.length; k++) {
+            int shift = 8 * (bigEndian ? size - 1 - k : k);
+            elf[at + k] = (byte) (value >>> shift);
+        }
+    }
+}
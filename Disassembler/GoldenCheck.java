@@ -0,0 +1,99 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Golden-file check of the text listing:
+//   java GoldenCheck [dir] [--update]
+// Lists every <dir>/<case>.elf (golden by default) with Main and compares the output byte for byte with
+// <dir>/<case>.txt, once as it is and once with -j 4 in front of the flags; <dir>/<case>.args may hold
+// flags for Main on one line. The expected listings of the plain ELF32 files were written by the
+// String.format version of the disassembler, so LineWriter has to keep its exact padding. --update
+// rewrites the .txt files from the current output, after a change to the listing format has been
+// checked by hand.
+public class GoldenCheck {
+    public static void main(String[] args) throws Exception {
+        boolean update = Arrays.asList(args).contains("--update");
+        Path dir = Path.of(args.length > 0 && !args[0].equals("--update") ? args[0] : "golden");
+        List<Path> cases;
+        try (Stream<Path> files = Files.list(dir)) {
+            cases = files.filter(file -> file.toString().endsWith(".elf")).sorted().toList();
+        }
+        Path out = Files.createTempFile("golden", ".txt");
+        int failed = 0;
+        try {
+            for (Path elf : cases) {
+                String name = elf.getFileName().toString().replaceFirst("\\.elf$", "");
+                Path golden = dir.resolve(name + ".txt");
+                String[] flags = flags(dir.resolve(name + ".args"));
+                byte[] listing = list(elf, flags, out);
+                if (update) {
+                    Files.write(golden, listing);
+                    System.out.println(golden + ": written");
+                    continue;
+                }
+                if (!Files.exists(golden)) {
+                    System.out.println(golden + ": missing, run with --update");
+                    failed++;
+                    continue;
+                }
+                byte[] expected = Files.readAllBytes(golden);
+                String diff = difference(expected, listing);
+                if (diff == null) {
+                    String[] parallel = new String[flags.length + 2];
+                    parallel[0] = "-j";
+                    parallel[1] = "4";
+                    System.arraycopy(flags, 0, parallel, 2, flags.length);
+                    diff = difference(expected, list(elf, parallel, out));
+                    if (diff != null) {
+                        diff = "with -j 4, " + diff;
+                    }
+                }
+                System.out.println(golden + ": " + (diff == null ? "ok" : diff));
+                if (diff != null) {
+                    failed++;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(out);
+        }
+        if (failed > 0) {
+            System.out.println(failed + " of " + cases.size() + " listings differ");
+            System.exit(1);
+        }
+    }
+
+    private static String[] flags(Path file) throws Exception {
+        if (!Files.exists(file) || Files.readString(file).isBlank()) {
+            return new String[0];
+        }
+        return Files.readString(file).trim().split("\\s+");
+    }
+
+    // output of "java Main <flags> <elf> <out>"
+    private static byte[] list(Path elf, String[] flags, Path out) throws Exception {
+        String[] args = Arrays.copyOf(flags, flags.length + 2);
+        args[flags.length] = elf.toString();
+        args[flags.length + 1] = out.toString();
+        Files.deleteIfExists(out);
+        Main.main(args);
+        return Files.exists(out) ? Files.readAllBytes(out) : new byte[0];
+    }
+
+    // first line that differs, null when there is none
+    private static String difference(byte[] expected, byte[] actual) {
+        if (Arrays.equals(expected, actual)) {
+            return null;
+        }
+        String[] want = new String(expected, StandardCharsets.ISO_8859_1).split("\n", -1);
+        String[] got = new String(actual, StandardCharsets.ISO_8859_1).split("\n", -1);
+        int line = 0;
+        while (line < want.length && line < got.length && want[line].equals(got[line])) {
+            line++;
+        }
+        return "line " + (line + 1) + ": expected \"" + (line < want.length ? want[line] : "<end>")
+                + "\", got \"" + (line < got.length ? got[line] : "<end>") + "\"";
+    }
+}
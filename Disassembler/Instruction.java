@@ -0,0 +1,28 @@
+public class Instruction {
+    // operand layouts, one per output template
+    public static final int FORMAT_NONE = 0; // mnemonic only
+    public static final int FORMAT_REG = 1; // rd, rs1, rs2
+    public static final int FORMAT_IMM = 2; // rd, rs1, imm
+    public static final int FORMAT_LOAD = 3; // rd, imm(rs1)
+    public static final int FORMAT_STORE = 4; // rs2, imm(rs1)
+    public static final int FORMAT_BRANCH = 5; // rs1, rs2, pc + imm
+    public static final int FORMAT_UPPER = 6; // rd, imm
+    public static final int FORMAT_JUMP = 7; // rd, pc + imm
+    public static final int FORMAT_AMO = 8; // rd, rs2, (rs1)
+    public static final int FORMAT_LR = 9; // rd, (rs1)
+    public static final int FORMAT_R4 = 10; // rd, rs1, rs2, rs3
+    public static final int FORMAT_R2 = 11; // rd, rs1
+    public static final int FORMAT_CSR = 12; // rd, csr (imm), rs1
+    public static final int FORMAT_CSRI = 13; // rd, csr (imm), uimm (rs1)
+    public static final int FORMAT_RS = 14; // rs1
+    public static final int FORMAT_RD_IMM = 15; // rd, imm
+    public int word; // the low 16 bits for compressed instructions
+    public int length; // 2 or 4 bytes, less for an instruction cut off by the end of its section
+    public int mnemonic;
+    public int format;
+    public int rd;
+    public int rs1;
+    public int rs2;
+    public int rs3;
+    public int imm;
+}
@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+// Static instruction mix of .text per FUNC symbol, filled in by RISCVParser while it discovers
+// labels. Each decoding pass counts into its own Counter (one per chunk when parallel), and the
+// counters are added together afterwards. Rows are per function plus one for code outside any
+// function; a row is allocated on the first instruction that lands in it. Categories come from
+// the operand format and the OpCodes.SPEC group of each mnemonic; "compressed" counts RVC
+// instructions, which are also in the category of the instruction they stand for.
+public class InstructionStats {
+    private static final int LOADS = 0, STORES = 1, BRANCHES = 2, JUMPS = 3, MUL = 4, DIV = 5, ATOMICS = 6,
+            FLOAT = 7, CSR = 8, SYSTEM = 9, UNKNOWN = 10, OTHER = 11;
+    private static final String[] CATEGORY_NAMES = {"loads", "stores", "branches", "jumps", "mul", "div", "atomics",
+            "float", "csr", "system", "unknown"};
+    private static final byte[] categories = new byte[OpCodes.mnemonics.length]; // mnemonic -> category
+    private SymbolIndex functions;
+    private long addressBase; // upper half of the function addresses, ELF64 only
+    private int[][] counts = new int[1][];
+
+    static {
+        categories[OpCodes.NONE] = UNKNOWN;
+        categories[OpCodes.UNKNOWN] = UNKNOWN;
+        for (int m = 2; m < categories.length; m++) {
+            String name = OpCodes.mnemonics[m];
+            String extension = OpCodes.extensions[m];
+            categories[m] = (byte) switch (OpCodes.formats[m]) {
+                case Instruction.FORMAT_LOAD -> name.equals("jalr") ? JUMPS : LOADS;
+                case Instruction.FORMAT_STORE -> STORES;
+                case Instruction.FORMAT_BRANCH -> BRANCHES;
+                case Instruction.FORMAT_JUMP, Instruction.FORMAT_RS -> JUMPS;
+                default -> switch (extension) {
+                    case "M" -> name.startsWith("mul") ? MUL : DIV;
+                    case "A" -> ATOMICS;
+                    case "F" -> FLOAT;
+                    case "Zicsr" -> CSR;
+                    default -> OpCodes.layouts[m] == OpCodes.LAYOUT_SYS || name.equals("c.ebreak") ? SYSTEM : OTHER;
+                };
+            };
+        }
+    }
+
+    public class Counter {
+        private final int[][] rows = new int[counts.length][];
+        private int[] row;
+        private int rowFrom = 1, rowSpan = 0; // current row covers [rowFrom, rowFrom + rowSpan)
+
+        public void count(int addr, int mnemonic) {
+            if (Integer.compareUnsigned(addr - rowFrom, rowSpan) >= 0) {
+                locate(addr);
+            }
+            row[mnemonic]++;
+        }
+
+        private void locate(int addr) {
+            // a row ends where the next function starts, the same way SymbolIndex.containing resolves overlaps
+            int f = functions.containing(addr);
+            int next = functions.floor(addr) + 1;
+            int r = f < 0 ? rows.length - 1 : f;
+            rowFrom = f < 0 ? addr : functions.address(f);
+            rowSpan = next < functions.size() ? functions.address(next) - rowFrom : -rowFrom;
+            if (f >= 0 && Integer.compareUnsigned(functions.symbolSize(f), rowSpan) < 0) {
+                rowSpan = functions.symbolSize(f);
+            }
+            if (rows[r] == null) {
+                rows[r] = new int[OpCodes.mnemonics.length];
+            }
+            row = rows[r];
+        }
+    }
+
+    // clears the counts and starts over for the given functions
+    public void reset(SymbolIndex functions, long addressBase) {
+        this.functions = functions;
+        this.addressBase = addressBase;
+        counts = new int[functions.size() + 1][];
+    }
+
+    public Counter counter() {
+        return new Counter();
+    }
+
+    public synchronized void add(Counter counter) {
+        for (int r = 0; r < counts.length; r++) {
+            int[] from = counter.rows[r];
+            if (from == null) {
+                continue;
+            }
+            if (counts[r] == null) {
+                counts[r] = new int[from.length];
+            }
+            for (int m = 0; m < from.length; m++) {
+                counts[r][m] += from[m];
+            }
+        }
+    }
+
+    // times mnemonic was seen in function f, -1 meaning code outside functions
+    public int count(int f, int mnemonic) {
+        int[] row = counts[f < 0 ? counts.length - 1 : f];
+        return row == null ? 0 : row[mnemonic];
+    }
+
+    public void writeJson(OutputStream stream) throws IOException {
+        LineWriter out = new LineWriter(stream);
+        int[] total = new int[OpCodes.mnemonics.length];
+        out.append("{\"functions\":[");
+        boolean first = true;
+        for (int r = 0; r < counts.length; r++) {
+            int[] row = counts[r];
+            if (row == null) {
+                continue;
+            }
+            for (int m = 0; m < row.length; m++) {
+                total[m] += row[m];
+            }
+            out.append(first ? "\n" : ",\n");
+            first = false;
+            if (r < functions.size()) {
+                out.append("{\"id\":").appendDec(r)
+                        .append(",\"name\":").appendJson(functions.name(r))
+                        .append(",\"addr\":").appendUnsigned(addressBase | (functions.address(r) & 0xffffffffL))
+                        .append(",\"size\":").appendUnsigned(functions.symbolSize(r)).append(',');
+            } else {
+                out.append("{\"id\":-1,\"name\":null,");
+            }
+            writeCounts(out, row);
+            out.append('}');
+        }
+        out.append("],\n\"total\":{");
+        writeCounts(out, total);
+        out.append("}}\n");
+        out.flush();
+    }
+
+    private static void writeCounts(LineWriter out, int[] row) throws IOException {
+        long[] byCategory = new long[OTHER + 1];
+        long instructions = 0;
+        for (int m = 0; m < row.length; m++) {
+            byCategory[categories[m]] += row[m];
+            instructions += row[m];
+        }
+        out.append("\"instructions\":").append(Long.toString(instructions));
+        for (int c = 0; c < CATEGORY_NAMES.length; c++) {
+            out.append(",\"").append(CATEGORY_NAMES[c]).append("\":").append(Long.toString(byCategory[c]));
+        }
+        out.append(",\"unknownDensity\":").append(String.format(Locale.ROOT, "%.6f",
+                instructions == 0 ? 0.0 : (double) byCategory[UNKNOWN] / instructions));
+        long compressed = 0;
+        for (int m = 0; m < row.length; m++) {
+            compressed += "C".equals(OpCodes.extensions[m]) ? row[m] : 0;
+        }
+        out.append(",\"compressed\":").append(Long.toString(compressed));
+        out.append(",\"mnemonics\":{");
+        boolean first = true;
+        for (int m = 0; m < row.length; m++) {
+            if (row[m] != 0) {
+                out.append(first ? "\"" : ",\"").append(m == OpCodes.NONE ? "invalid" : OpCodes.mnemonics[m])
+                        .append("\":").appendDec(row[m]);
+                first = false;
+            }
+        }
+        out.append('}');
+    }
+}
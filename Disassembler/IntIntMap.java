@@ -0,0 +1,82 @@
+import java.util.Arrays;
+
+// open-addressing int -> int map for address tables; values must be non-negative
+public class IntIntMap {
+    private int[] keys;
+    private int[] values; // stored as value + 1, 0 marks an empty slot
+    private int size;
+    private int mask;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int get(int key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (values[i] == 0) {
+                return -1;
+            }
+            if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) >= 0;
+    }
+
+    public void put(int key, int value) {
+        int i = slot(key);
+        while (values[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == 0) {
+            size++;
+        }
+        keys[i] = key;
+        values[i] = value + 1;
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int j = slot(oldKeys[i]);
+                while (values[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.Arrays;
+
+// growable int array
+public class IntList {
+    private int[] data;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        data = new int[Math.max(capacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, size * 2);
+        }
+        data[size++] = value;
+    }
+
+    public int get(int idx) {
+        return data[idx];
+    }
+
+    public void set(int idx, int value) {
+        data[idx] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
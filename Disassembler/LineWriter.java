@@ -0,0 +1,256 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// reusable output buffer; chars are written as single ISO-8859-1 bytes, so names decoded
+// one byte per char from the string tables come out exactly as they are stored in the file
+public class LineWriter {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final byte[] LOWER_DIGITS = "0123456789abcdef".getBytes();
+    private static final byte[] UPPER_DIGITS = "0123456789ABCDEF".getBytes();
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos;
+    private final byte[] scratch = new byte[16];
+
+    public LineWriter(OutputStream out) {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    public LineWriter(OutputStream out, int capacity) {
+        this.out = out;
+        this.buf = new byte[capacity];
+    }
+
+    public LineWriter append(char c) throws IOException {
+        ensure(1);
+        buf[pos++] = (byte) c;
+        return this;
+    }
+
+    public LineWriter append(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            append(s.charAt(i));
+        }
+        return this;
+    }
+
+    public LineWriter append(byte[] bytes) throws IOException {
+        if (bytes.length > buf.length) {
+            out.write(buf, 0, pos);
+            pos = 0;
+            out.write(bytes);
+            return this;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+        return this;
+    }
+
+    // length bytes of src from offset, as they are
+    public LineWriter append(ByteBuffer src, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensure(Math.min(length, buf.length));
+            int n = Math.min(length, buf.length - pos);
+            src.get(offset, buf, pos, n);
+            pos += n;
+            offset += n;
+            length -= n;
+        }
+        return this;
+    }
+
+    // %s, null is written as "null"
+    public LineWriter appendString(String s) throws IOException {
+        return append(String.valueOf(s));
+    }
+
+    // %<width>s
+    public LineWriter appendRight(String s, int width) throws IOException {
+        s = String.valueOf(s);
+        pad(width - s.length());
+        return append(s);
+    }
+
+    // %-<width>s
+    public LineWriter appendLeft(String s, int width) throws IOException {
+        s = String.valueOf(s);
+        append(s);
+        return pad(width - s.length());
+    }
+
+    // %0<digits>x
+    public LineWriter appendHex(int value, int digits) throws IOException {
+        return appendHex(value & 0xffffffffL, digits);
+    }
+
+    public LineWriter appendHex(long value, int digits) throws IOException {
+        int len = toHex(value, digits, LOWER_DIGITS);
+        ensure(len);
+        System.arraycopy(scratch, scratch.length - len, buf, pos, len);
+        pos += len;
+        return this;
+    }
+
+    // %-<width>X
+    public LineWriter appendHexUpperLeft(int value, int width) throws IOException {
+        return appendHexUpperLeft(value & 0xffffffffL, width);
+    }
+
+    public LineWriter appendHexUpperLeft(long value, int width) throws IOException {
+        int len = toHex(value, 1, UPPER_DIGITS);
+        ensure(len);
+        System.arraycopy(scratch, scratch.length - len, buf, pos, len);
+        pos += len;
+        return pad(width - len);
+    }
+
+    // %d
+    public LineWriter appendDec(int value) throws IOException {
+        return appendDec(value, 0);
+    }
+
+    // %<width>d
+    public LineWriter appendDec(int value, int width) throws IOException {
+        int len = toDec(value);
+        pad(width - len);
+        ensure(len);
+        System.arraycopy(scratch, scratch.length - len, buf, pos, len);
+        pos += len;
+        return this;
+    }
+
+    // raw little-endian values for binary output
+    public LineWriter writeByte(int value) throws IOException {
+        ensure(1);
+        buf[pos++] = (byte) value;
+        return this;
+    }
+
+    public LineWriter writeShort(int value) throws IOException {
+        ensure(2);
+        buf[pos++] = (byte) value;
+        buf[pos++] = (byte) (value >>> 8);
+        return this;
+    }
+
+    public LineWriter writeInt(int value) throws IOException {
+        ensure(4);
+        buf[pos++] = (byte) value;
+        buf[pos++] = (byte) (value >>> 8);
+        buf[pos++] = (byte) (value >>> 16);
+        buf[pos++] = (byte) (value >>> 24);
+        return this;
+    }
+
+    public LineWriter writeLong(long value) throws IOException {
+        return writeInt((int) value).writeInt((int) (value >>> 32));
+    }
+
+    // "%s" as a JSON string literal; chars outside printable ASCII are written as 6-char escapes.
+    // Names from the file come one char per byte (ISO-8859-1), so a string of such chars with bytes
+    // past 0x7f is decoded as UTF-8 first and the escapes are those of the real characters.
+    public LineWriter appendJson(String s) throws IOException {
+        if (s == null) {
+            return append("null");
+        }
+        if (hasHighBytes(s)) {
+            s = new String(s.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+        }
+        append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                append('\\').append(c);
+            } else if (c < 0x20 || c >= 0x7f) {
+                append("\\u").appendHex(c, 4);
+            } else {
+                append(c);
+            }
+        }
+        return append('"');
+    }
+
+    // whether s has chars in 0x80..0xff and none above, i.e. is bytes that are not all ASCII
+    private static boolean hasHighBytes(String s) {
+        boolean high = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c > 0xff) {
+                return false;
+            }
+            high |= c >= 0x80;
+        }
+        return high;
+    }
+
+    // %d of the value read as unsigned
+    public LineWriter appendUnsigned(int value) throws IOException {
+        if (value >= 0) {
+            return appendDec(value);
+        }
+        return append(Long.toString(value & 0xffffffffL));
+    }
+
+    public LineWriter appendUnsigned(long value) throws IOException {
+        return appendUnsigned(value, 0);
+    }
+
+    // %<width>d of the value read as unsigned
+    public LineWriter appendUnsigned(long value, int width) throws IOException {
+        if (value >= 0 && value <= Integer.MAX_VALUE) {
+            return appendDec((int) value, width);
+        }
+        String s = Long.toUnsignedString(value);
+        return pad(width - s.length()).append(s);
+    }
+
+    public OutputStream stream() {
+        return out;
+    }
+
+    public void flush() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+        out.flush();
+    }
+
+    private void ensure(int n) throws IOException {
+        if (pos + n > buf.length) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private LineWriter pad(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            append(' ');
+        }
+        return this;
+    }
+
+    // the helpers below fill the tail of scratch and return the number of bytes written
+    private int toHex(long value, int minDigits, byte[] digits) {
+        int len = Math.max(minDigits, Math.max(1, (67 - Long.numberOfLeadingZeros(value)) >> 2));
+        for (int i = 1; i <= len; i++) {
+            scratch[scratch.length - i] = digits[(int) value & 0xf];
+            value >>>= 4;
+        }
+        return len;
+    }
+
+    private int toDec(int value) {
+        long v = Math.abs((long) value);
+        int i = scratch.length;
+        do {
+            scratch[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) {
+            scratch[--i] = '-';
+        }
+        return scratch.length - i;
+    }
+}
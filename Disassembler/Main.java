@@ -1,31 +1,102 @@
 import java.io.IOException;
 import java.io.FileNotFoundException;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Main {
     public static void main(InputStream input, OutputStream output) throws IOException, UnsupportedFileFormatException {
-        List<Integer> file = new ArrayList<>();
-        int new_byte = input.read();
-        while (new_byte != -1) {
-            file.add(new_byte);
-            new_byte = input.read();
-        }
-        ElfParser parser = new ElfParser(file, output);
+        // fallback for non-file sources: one bulk read instead of a read() per byte
+        main(ByteBuffer.wrap(input.readAllBytes()), output);
+    }
+
+    public static void main(ByteBuffer input, OutputStream output) throws IOException, UnsupportedFileFormatException {
+        main(input, output, new DisassemblerOptions());
+    }
+
+    public static void main(ByteBuffer input, OutputStream output, DisassemblerOptions options)
+            throws IOException, UnsupportedFileFormatException {
+        ElfParser parser = new ElfParser(input, output, options);
         parser.parse();
     }
 
+    // flags go before the file names; everything that is not a flag is collected into files
+    public static DisassemblerOptions parseOptions(String[] args, List<String> files) {
+        DisassemblerOptions options = new DisassemblerOptions();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f", "--format" -> options.format = args[++i];
+                case "-j", "--threads" -> options.threads = Integer.parseInt(args[++i]);
+                case "-r", "--relative-labels" -> options.relativeLabels = true;
+                case "--cache" -> options.cacheDir = Path.of(args[++i]);
+                case "--cache-size" -> options.cacheSize = Long.parseLong(args[++i]) << 20;
+                case "--no-cache" -> options.cacheDir = null;
+                case "-w", "--workers" -> options.workers = Integer.parseInt(args[++i]);
+                case "--stats" -> options.statsFile = Path.of(args[++i]);
+                case "--metrics" -> options.metricsFile = Path.of(args[++i]);
+                case "-s", "--symbol" -> options.symbolPatterns.add(args[++i]);
+                case "--range" -> options.addressRanges.add(parseRange(args[++i]));
+                case "--section" -> options.section = args[++i];
+                default -> files.add(args[i]);
+            }
+        }
+        return options;
+    }
+
+    // "from-to" or "from+size", decimal or 0x hex
+    private static long[] parseRange(String range) {
+        int split = Math.max(range.indexOf('-'), range.indexOf('+'));
+        if (split < 0) {
+            throw new IllegalArgumentException("Address range is not from-to or from+size: " + range);
+        }
+        long from = Long.decode(range.substring(0, split));
+        long to = Long.decode(range.substring(split + 1));
+        return new long[]{from, range.charAt(split) == '+' ? from + to : to};
+    }
+
+    static void writeReports(DisassemblerOptions options) throws IOException {
+        if (options.stats != null) {
+            try (OutputStream out = new FileOutputStream(options.statsFile.toFile())) {
+                options.stats.writeJson(out);
+            }
+        }
+        if (options.metrics != null) {
+            try (OutputStream out = new FileOutputStream(options.metricsFile.toFile())) {
+                options.metrics.writeJson(out);
+            }
+        }
+    }
+
+    public static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
     public static void main(String[] args) {
         try {
-            InputStream input = new FileInputStream(args[0]);
-            try {
-                OutputStream output = new FileOutputStream(args[1]);
+            List<String> files = new ArrayList<>();
+            DisassemblerOptions options = parseOptions(args, files);
+            options.stats = options.statsFile == null ? null : new InstructionStats();
+            options.metrics = options.metricsFile == null ? null : new Metrics();
+            long start = System.nanoTime();
+            ByteBuffer input = map(Path.of(files.get(0)));
+            if (options.metrics != null) {
+                options.metrics.nanos[Metrics.LOAD] = System.nanoTime() - start;
+                options.metrics.inputBytes = input.capacity();
+            }
+            try (OutputStream output = new FileOutputStream(files.get(1))) {
                 try {
-                    main(input, output);
+                    main(input, output, options);
+                    writeReports(options);
                 } catch (UnsupportedFileFormatException e) {
                     System.out.println("Unsupported file format: " + e.getMessage());
                 } catch (IOException e) {
@@ -34,10 +105,10 @@ public class Main {
             } catch (FileNotFoundException e) {
                 System.out.println("Output file not found: " + e.getMessage());
             }
-        } catch (FileNotFoundException e) {
+        } catch (NoSuchFileException e) {
             System.out.println("Input file not found: " + e.getMessage());
         } catch (Exception e) {
             System.out.println("Something went wrong, I give up: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
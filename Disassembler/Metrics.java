@@ -0,0 +1,61 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Wall time of the phases of one run, in nanoseconds. Output goes through timed(), so time spent in
+// the output stream is counted as "write" and not in the phase that produced the bytes. Not
+// thread-safe: one Metrics per run.
+public class Metrics {
+    public static final int LOAD = 0, SECTIONS = 1, SYMTAB = 2, DECODE = 3, FORMAT = 4, WRITE = 5;
+    private static final String[] PHASES = {"load", "sections", "symtab", "decode", "format", "write"};
+    public final long[] nanos = new long[PHASES.length];
+    public long inputBytes, outputBytes, instructions;
+
+    // start of a phase, to be passed to stop(); both subtract the write time seen so far
+    public long start() {
+        return System.nanoTime() - nanos[WRITE];
+    }
+
+    public void stop(int phase, long start) {
+        nanos[phase] += System.nanoTime() - nanos[WRITE] - start;
+    }
+
+    public OutputStream timed(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                out.write(b, off, len);
+                nanos[WRITE] += System.nanoTime() - start;
+                outputBytes += len;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long start = System.nanoTime();
+                out.flush();
+                nanos[WRITE] += System.nanoTime() - start;
+            }
+        };
+    }
+
+    public void writeJson(OutputStream stream) throws IOException {
+        LineWriter out = new LineWriter(stream);
+        out.append("{\"phases\":{");
+        long total = 0;
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            out.append(phase == 0 ? "\"" : ",\"").append(PHASES[phase]).append("\":").append(Long.toString(nanos[phase]));
+            total += nanos[phase];
+        }
+        out.append("},\"totalNanos\":").append(Long.toString(total))
+                .append(",\"inputBytes\":").append(Long.toString(inputBytes))
+                .append(",\"outputBytes\":").append(Long.toString(outputBytes))
+                .append(",\"instructions\":").append(Long.toString(instructions)).append("}\n");
+        out.flush();
+    }
+}
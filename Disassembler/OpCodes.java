@@ -1,85 +1,298 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class OpCodes {
-    public static Map<Integer, Map<Integer, Map<Integer, String>>> Rcodes = Map.ofEntries(
-            Map.entry(0b0010011, Map.of(
-                    0b001, Map.of(0b0000000, "slli"),
-                    0b101, Map.of(0b0000000, "srli", 0b0100000, "srai")
-            )),
-            Map.entry(0b0110011, Map.of(
-                    0b000, Map.of(0b0000000, "add", 0b0100000, "sub", 0b0000001, "mul"),
-                    0b001, Map.of(0b0000000, "sll", 0b0000001, "mulh"),
-                    0b010, Map.of(0b0000000, "slt", 0b0000001, "mulhsu"),
-                    0b011, Map.of(0b0000000, "sltu", 0b0000001, "mulhu"),
-                    0b100, Map.of(0b0000000, "xor", 0b0000001, "div"),
-                    0b101, Map.of(0b0000000, "srl", 0b0100000, "sra", 0b0000001, "divu"),
-                    0b110, Map.of(0b0000000, "or", 0b0000001, "rem"),
-                    0b111, Map.of(0b0000000, "and", 0b0000001, "remu")
-            ))
-    );
+    // One line per instruction, grouped by extension ("= name [RV32|RV64]" starts a group, which
+    // goes into the tables of both base ISAs unless it names one):
+    //   <name> <layout> <opcode> [funct3] [funct7] [rs2] [register classes]
+    // Fields are binary, "-" or a missing field matches anything (funct3 "-" is a rounding mode).
+    // A 5-bit funct7 is funct5 followed by aq and rl: every combination becomes its own mnemonic
+    // with an .aq, .rl or .aqrl suffix. A 6-bit funct7 is funct6 over a 6-bit shamt, a 2-bit one
+    // is the fmt field under rs3. A name given again in another group keeps its mnemonic id.
+    // Register classes are x or f for rd, rs1, rs2 and rs3, x when not given.
+    // Compressed instructions are taken apart by RISCVDecoder; their lines only give the name,
+    // the operand format they are printed with and the register classes:
+    //   <name> C <format> [register classes]
+    private static final String[] SPEC = {
+            "= I",
+            "lui U 0110111", "auipc U 0010111", "jal J 1101111", "jalr L 1100111 000",
+            "beq B 1100011 000", "bne B 1100011 001", "blt B 1100011 100", "bge B 1100011 101",
+            "bltu B 1100011 110", "bgeu B 1100011 111",
+            "lb L 0000011 000", "lh L 0000011 001", "lw L 0000011 010", "lbu L 0000011 100", "lhu L 0000011 101",
+            "sb S 0100011 000", "sh S 0100011 001", "sw S 0100011 010",
+            "addi I 0010011 000", "slti I 0010011 010", "sltiu I 0010011 011", "xori I 0010011 100",
+            "ori I 0010011 110", "andi I 0010011 111",
+            "= I RV32",
+            "slli SH 0010011 001 0000000", "srli SH 0010011 101 0000000", "srai SH 0010011 101 0100000",
+            "= I",
+            "add R 0110011 000 0000000", "sub R 0110011 000 0100000", "sll R 0110011 001 0000000",
+            "slt R 0110011 010 0000000", "sltu R 0110011 011 0000000", "xor R 0110011 100 0000000",
+            "srl R 0110011 101 0000000", "sra R 0110011 101 0100000", "or R 0110011 110 0000000",
+            "and R 0110011 111 0000000",
+            "ecall SYS 1110011 000 0000000 00000", "ebreak SYS 1110011 000 0000000 00001",
+            "sret SYS 1110011 000 0001000 00010", "mret SYS 1110011 000 0011000 00010",
+            "wfi SYS 1110011 000 0001000 00101",
+            "= M",
+            "mul R 0110011 000 0000001", "mulh R 0110011 001 0000001", "mulhsu R 0110011 010 0000001",
+            "mulhu R 0110011 011 0000001", "div R 0110011 100 0000001", "divu R 0110011 101 0000001",
+            "rem R 0110011 110 0000001", "remu R 0110011 111 0000001",
+            "= A",
+            "lr.w LR 0101111 010 00010 00000", "sc.w AMO 0101111 010 00011", "amoswap.w AMO 0101111 010 00001",
+            "amoadd.w AMO 0101111 010 00000", "amoxor.w AMO 0101111 010 00100", "amoand.w AMO 0101111 010 01100",
+            "amoor.w AMO 0101111 010 01000", "amomin.w AMO 0101111 010 10000", "amomax.w AMO 0101111 010 10100",
+            "amominu.w AMO 0101111 010 11000", "amomaxu.w AMO 0101111 010 11100",
+            "= F",
+            "flw L 0000111 010 - - fx", "fsw S 0100111 010 - - xxf",
+            "fmadd.s R4 1000011 - 00 - ffff", "fmsub.s R4 1000111 - 00 - ffff",
+            "fnmsub.s R4 1001011 - 00 - ffff", "fnmadd.s R4 1001111 - 00 - ffff",
+            "fadd.s R 1010011 - 0000000 - fff", "fsub.s R 1010011 - 0000100 - fff",
+            "fmul.s R 1010011 - 0001000 - fff", "fdiv.s R 1010011 - 0001100 - fff",
+            "fsqrt.s R2 1010011 - 0101100 00000 ff",
+            "fsgnj.s R 1010011 000 0010000 - fff", "fsgnjn.s R 1010011 001 0010000 - fff",
+            "fsgnjx.s R 1010011 010 0010000 - fff",
+            "fmin.s R 1010011 000 0010100 - fff", "fmax.s R 1010011 001 0010100 - fff",
+            "fcvt.w.s R2 1010011 - 1100000 00000 xf", "fcvt.wu.s R2 1010011 - 1100000 00001 xf",
+            "fmv.x.w R2 1010011 000 1110000 00000 xf", "fclass.s R2 1010011 001 1110000 00000 xf",
+            "feq.s R 1010011 010 1010000 - xff", "flt.s R 1010011 001 1010000 - xff",
+            "fle.s R 1010011 000 1010000 - xff",
+            "fcvt.s.w R2 1010011 - 1101000 00000 fx", "fcvt.s.wu R2 1010011 - 1101000 00001 fx",
+            "fmv.w.x R2 1010011 000 1111000 00000 fx",
+            "= Zicsr",
+            "csrrw CSR 1110011 001", "csrrs CSR 1110011 010", "csrrc CSR 1110011 011",
+            "csrrwi CSRI 1110011 101", "csrrsi CSRI 1110011 110", "csrrci CSRI 1110011 111",
+            "= C",
+            "c.addi4spn C IMM", "c.lw C LOAD", "c.flw C LOAD fx", "c.sw C STORE", "c.fsw C STORE xxf",
+            "c.nop C NONE", "c.addi C IMM", "c.jal C JUMP", "c.li C RD_IMM", "c.addi16sp C IMM", "c.lui C UPPER",
+            "c.srli C IMM", "c.srai C IMM", "c.andi C IMM", "c.sub C REG", "c.xor C REG", "c.or C REG",
+            "c.and C REG", "c.j C JUMP", "c.beqz C BRANCH", "c.bnez C BRANCH",
+            "c.slli C IMM", "c.lwsp C LOAD", "c.flwsp C LOAD fx", "c.jr C RS", "c.mv C R2", "c.ebreak C NONE",
+            "c.jalr C RS", "c.add C REG", "c.swsp C STORE", "c.fswsp C STORE xxf",
+            // RV64 comes last so that the ids of the RV32 mnemonics stay the same. RV64C reuses the
+            // encodings of c.flw, c.fsw, c.jal, c.flwsp and c.fswsp for the ones below
+            "= I RV64",
+            "slli SH 0010011 001 000000", "srli SH 0010011 101 000000", "srai SH 0010011 101 010000",
+            "ld L 0000011 011", "lwu L 0000011 110", "sd S 0100011 011",
+            "addiw I 0011011 000", "slliw SH 0011011 001 0000000", "srliw SH 0011011 101 0000000",
+            "sraiw SH 0011011 101 0100000",
+            "addw R 0111011 000 0000000", "subw R 0111011 000 0100000", "sllw R 0111011 001 0000000",
+            "srlw R 0111011 101 0000000", "sraw R 0111011 101 0100000",
+            "= M RV64",
+            "mulw R 0111011 000 0000001", "divw R 0111011 100 0000001", "divuw R 0111011 101 0000001",
+            "remw R 0111011 110 0000001", "remuw R 0111011 111 0000001",
+            "= A RV64",
+            "lr.d LR 0101111 011 00010 00000", "sc.d AMO 0101111 011 00011", "amoswap.d AMO 0101111 011 00001",
+            "amoadd.d AMO 0101111 011 00000", "amoxor.d AMO 0101111 011 00100", "amoand.d AMO 0101111 011 01100",
+            "amoor.d AMO 0101111 011 01000", "amomin.d AMO 0101111 011 10000", "amomax.d AMO 0101111 011 10100",
+            "amominu.d AMO 0101111 011 11000", "amomaxu.d AMO 0101111 011 11100",
+            "= F RV64",
+            "fcvt.l.s R2 1010011 - 1100000 00010 xf", "fcvt.lu.s R2 1010011 - 1100000 00011 xf",
+            "fcvt.s.l R2 1010011 - 1101000 00010 fx", "fcvt.s.lu R2 1010011 - 1101000 00011 fx",
+            "= C RV64",
+            "c.ld C LOAD", "c.sd C STORE", "c.addiw C IMM", "c.subw C REG", "c.addw C REG", "c.ldsp C LOAD",
+            "c.sdsp C STORE",
+    };
 
-    public static Map<Integer, Map<Integer, String>> Icodes = Map.ofEntries(
-            Map.entry(0b1100111, Map.of(0b000, "jalr")),
-            Map.entry(0b0000011, Map.of(
-                    0b000, "lb",
-                    0b001, "lh",
-                    0b010, "lw",
-                    0b100, "lbu",
-                    0b101, "lhu"
-            )),
-            Map.entry(0b0010011, Map.of(
-                    0b000, "addi",
-                    0b010, "slti",
-                    0b011, "sltiu",
-                    0b100, "xori",
-                    0b110, "ori",
-                    0b111, "andi"
-            ))
-    );
+    // how RISCVDecoder takes a 32-bit instruction apart
+    public static final int LAYOUT_UNKNOWN = 0, LAYOUT_R = 1, LAYOUT_I = 2, LAYOUT_L = 3, LAYOUT_SH = 4, LAYOUT_S = 5,
+            LAYOUT_B = 6, LAYOUT_U = 7, LAYOUT_J = 8, LAYOUT_AMO = 9, LAYOUT_LR = 10, LAYOUT_R4 = 11, LAYOUT_R2 = 12,
+            LAYOUT_CSR = 13, LAYOUT_CSRI = 14, LAYOUT_SYS = 15, LAYOUT_C = 16;
+    private static final List<String> LAYOUT_NAMES = List.of("-", "R", "I", "L", "SH", "S", "B", "U", "J", "AMO", "LR",
+            "R4", "R2", "CSR", "CSRI", "SYS", "C");
+    private static final int[] LAYOUT_FORMATS = {Instruction.FORMAT_NONE, Instruction.FORMAT_REG, Instruction.FORMAT_IMM,
+            Instruction.FORMAT_LOAD, Instruction.FORMAT_IMM, Instruction.FORMAT_STORE, Instruction.FORMAT_BRANCH,
+            Instruction.FORMAT_UPPER, Instruction.FORMAT_JUMP, Instruction.FORMAT_AMO, Instruction.FORMAT_LR,
+            Instruction.FORMAT_R4, Instruction.FORMAT_R2, Instruction.FORMAT_CSR, Instruction.FORMAT_CSRI,
+            Instruction.FORMAT_NONE};
+    // Instruction.FORMAT_* by name
+    public static final List<String> FORMAT_NAMES = List.of("NONE", "REG", "IMM", "LOAD", "STORE", "BRANCH", "UPPER",
+            "JUMP", "AMO", "LR", "R4", "R2", "CSR", "CSRI", "RS", "RD_IMM");
+    // bits of floatRegisters
+    public static final int FLOAT_RD = 1, FLOAT_RS1 = 2, FLOAT_RS2 = 4, FLOAT_RS3 = 8;
 
-    public static Map<Integer, Map<Integer, String>> Scodes = Map.ofEntries(
-            Map.entry(0b0100011, Map.of(
-                    0b000, "sb",
-                    0b001, "sh",
-                    0b010, "sw"
-            ))
+    public static List<String> registerNames = List.of(
+            "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2", "s0", "s1", "a0", "a1", "a2", "a3", "a4",
+            "a5", "a6", "a7", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11", "t3", "t4", "t5", "t6"
     );
 
-    public static Map<Integer, Map<Integer, String>> Bcodes = Map.ofEntries(
-            Map.entry(0b1100011, Map.of(
-                    0b000, "beq",
-                    0b001, "bne",
-                    0b100, "blt",
-                    0b101, "bge",
-                    0b110, "bltu",
-                    0b111, "bgeu"
-            ))
+    public static List<String> floatRegisterNames = List.of(
+            "ft0", "ft1", "ft2", "ft3", "ft4", "ft5", "ft6", "ft7", "fs0", "fs1", "fa0", "fa1", "fa2", "fa3", "fa4",
+            "fa5", "fa6", "fa7", "fs2", "fs3", "fs4", "fs5", "fs6", "fs7", "fs8", "fs9", "fs10", "fs11", "ft8", "ft9",
+            "ft10", "ft11"
     );
 
-    public static Map<Integer, String> Ucodes = Map.of(
-            0b0110111, "lui",
-            0b0010111, "auipc"
-    );
+    // the CSRs a listing usually mentions, as hex number and name; the rest are printed as numbers
+    private static final String CSR_SPEC = "001 fflags 002 frm 003 fcsr 100 sstatus 104 sie 105 stvec 140 sscratch "
+            + "141 sepc 142 scause 143 stval 144 sip 180 satp 300 mstatus 301 misa 304 mie 305 mtvec 340 mscratch "
+            + "341 mepc 342 mcause 343 mtval 344 mip c00 cycle c01 time c02 instret c80 cycleh c81 timeh "
+            + "c82 instreth f11 mvendorid f12 marchid f13 mimpid f14 mhartid";
 
-    public static Map<Integer, String> Jcodes = Map.of(
-            0b1101111, "jal"
-    );
+    // Flat lookup tables generated from SPEC, one set per base ISA; mnemonic ids follow the order of
+    // SPEC. An entry of a lookup table is a mnemonic id, or -(n + 1) to continue in block n of the
+    // next table.
+    public static final int NONE = 0; // no such mnemonic
+    public static final int UNKNOWN = 1;
+    public static final int ECALL;
+    public static final int EBREAK;
+    public static final String[] mnemonics;
+    public static final String[] extensions; // mnemonic -> group of SPEC it comes from
+    public static final byte[] layouts; // mnemonic -> LAYOUT_*
+    public static final byte[] formats; // mnemonic -> Instruction.FORMAT_*
+    public static final byte[] floatRegisters; // mnemonic -> FLOAT_* bits of the operands that are f registers
+    public static final Tables RV32 = new Tables(), RV64 = new Tables();
+    public static final String[] csrNames = new String[4096];
 
-    public static Map<Integer, Character> types = Map.ofEntries(
-            Map.entry(0b0110111, 'U'),
-            Map.entry(0b0010111, 'U'),
-            Map.entry(0b1101111, 'J'),
-            Map.entry(0b1100111, 'I'),
-            Map.entry(0b1100011, 'B'),
-            Map.entry(0b0000011, 'I'),
-            Map.entry(0b0100011, 'S'),
-            Map.entry(0b0010011, 'I'),
-            Map.entry(0b0110011, 'R')
-    );
+    public static class Tables {
+        public final short[] functTable = new short[128 * 8]; // (opcode << 3 | funct3) -> mnemonic or funct7 block
+        public short[] funct7Table; // (block << 7 | funct7) -> mnemonic or rs2 block
+        public short[] rs2Table; // (block << 5 | rs2) -> mnemonic
+        private final List<short[]> funct7Blocks = new ArrayList<>();
+        private final List<short[]> rs2Blocks = new ArrayList<>();
 
-    public static List<String> registerNames = List.of(
-            "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2", "s0", "s1", "a0", "a1", "a2", "a3", "a4",
-            "a5", "a6", "a7", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11", "t3", "t4", "t5", "t6"
-    );
-}
\ No newline at end of file
+        private Tables() {
+            Arrays.fill(functTable, (short) UNKNOWN);
+        }
+    }
+
+    static {
+        List<String> names = new ArrayList<>(List.of("", "unknown_instruction"));
+        List<String> groups = new ArrayList<>(List.of("", ""));
+        List<Integer> layoutList = new ArrayList<>(List.of(LAYOUT_UNKNOWN, LAYOUT_UNKNOWN));
+        List<Integer> formatList = new ArrayList<>(List.of(Instruction.FORMAT_NONE, Instruction.FORMAT_NONE));
+        List<Integer> floatList = new ArrayList<>(List.of(0, 0));
+        String group = "";
+        List<Tables> tables = List.of(RV32, RV64);
+        for (String line : SPEC) {
+            String[] f = line.split(" ");
+            if (f[0].equals("=")) {
+                group = f[1];
+                tables = f.length < 3 ? List.of(RV32, RV64) : List.of(f[2].equals("RV32") ? RV32 : RV64);
+                continue;
+            }
+            int layout = LAYOUT_NAMES.indexOf(f[1]);
+            String regs = layout == LAYOUT_C ? field(f, 3) : field(f, 6);
+            int floats = 0;
+            for (int r = 0; regs != null && r < regs.length(); r++) {
+                floats |= regs.charAt(r) == 'f' ? 1 << r : 0;
+            }
+            String funct7 = field(f, 4);
+            // a funct5 expands to four mnemonics, one per aq/rl combination
+            String[] suffixes = layout != LAYOUT_C && funct7 != null && funct7.length() == 5
+                    ? new String[]{"", ".rl", ".aq", ".aqrl"} : new String[]{""};
+            for (int aqrl = 0; aqrl < suffixes.length; aqrl++) {
+                int id = names.indexOf(f[0] + suffixes[aqrl]);
+                if (id < 0) {
+                    id = names.size();
+                    names.add(f[0] + suffixes[aqrl]);
+                    groups.add(group);
+                    layoutList.add(layout);
+                    formatList.add(layout == LAYOUT_C ? FORMAT_NAMES.indexOf(f[2]) : LAYOUT_FORMATS[layout]);
+                    floatList.add(floats);
+                }
+                if (layout != LAYOUT_C) {
+                    String f7 = suffixes.length > 1 ? funct7 + (aqrl >> 1) + (aqrl & 1) : funct7;
+                    for (Tables t : tables) {
+                        addEncoding(t, id, Integer.parseInt(f[2], 2), field(f, 3), f7, field(f, 5));
+                    }
+                }
+            }
+        }
+        mnemonics = names.toArray(new String[0]);
+        mnemonics[NONE] = null;
+        extensions = groups.toArray(new String[0]);
+        layouts = new byte[mnemonics.length];
+        formats = new byte[mnemonics.length];
+        floatRegisters = new byte[mnemonics.length];
+        for (int m = 0; m < mnemonics.length; m++) {
+            layouts[m] = (byte) (int) layoutList.get(m);
+            formats[m] = (byte) (int) formatList.get(m);
+            floatRegisters[m] = (byte) (int) floatList.get(m);
+        }
+        for (Tables t : List.of(RV32, RV64)) {
+            t.funct7Table = flatten(t.funct7Blocks, 128);
+            t.rs2Table = flatten(t.rs2Blocks, 32);
+        }
+        ECALL = mnemonicId("ecall");
+        EBREAK = mnemonicId("ebreak");
+        String[] csr = CSR_SPEC.split(" ");
+        for (int i = 0; i < csr.length; i += 2) {
+            csrNames[Integer.parseInt(csr[i], 16)] = csr[i + 1];
+        }
+    }
+
+    // id of a mnemonic by name, NONE if there is no such mnemonic
+    public static int mnemonicId(String name) {
+        for (int id = 1; id < mnemonics.length; id++) {
+            if (mnemonics[id].equals(name)) {
+                return id;
+            }
+        }
+        return NONE;
+    }
+
+    private static String field(String[] f, int idx) {
+        return idx < f.length && !f[idx].equals("-") ? f[idx] : null;
+    }
+
+    // sets every table entry the encoding matches, splitting entries into blocks where funct7 or rs2 is needed
+    private static void addEncoding(Tables t, int id, int opcode, String funct3, String funct7, String rs2) {
+        short[] functTable = t.functTable;
+        for (int f3 = 0; f3 < 8; f3++) {
+            if (funct3 != null && f3 != Integer.parseInt(funct3, 2)) {
+                continue;
+            }
+            int slot = (opcode << 3) | f3;
+            if (funct7 == null && rs2 == null) {
+                functTable[slot] = claim(functTable[slot], id);
+                continue;
+            }
+            short[] byFunct7 = block(functTable, slot, t.funct7Blocks, 128);
+            for (int f7 = 0; f7 < 128; f7++) {
+                if (funct7 != null && switch (funct7.length()) {
+                    case 2 -> f7 & 3;
+                    case 6 -> f7 >> 1;
+                    default -> f7;
+                } != Integer.parseInt(funct7, 2)) {
+                    continue;
+                }
+                if (rs2 == null) {
+                    byFunct7[f7] = claim(byFunct7[f7], id);
+                    continue;
+                }
+                short[] byRs2 = block(byFunct7, f7, t.rs2Blocks, 32);
+                int r = Integer.parseInt(rs2, 2);
+                byRs2[r] = claim(byRs2[r], id);
+            }
+        }
+    }
+
+    private static short claim(short entry, int id) {
+        if (entry != UNKNOWN) {
+            throw new IllegalStateException("Overlapping encodings in OpCodes.SPEC: " + entry + " and " + id);
+        }
+        return (short) id;
+    }
+
+    // the block an entry continues in, allocated on first use
+    private static short[] block(short[] table, int entry, List<short[]> blocks, int size) {
+        if (table[entry] < 0) {
+            return blocks.get(-table[entry] - 1);
+        }
+        if (table[entry] != UNKNOWN) {
+            throw new IllegalStateException("Overlapping encodings in OpCodes.SPEC: " + table[entry]);
+        }
+        short[] block = new short[size];
+        Arrays.fill(block, (short) UNKNOWN);
+        blocks.add(block);
+        table[entry] = (short) -blocks.size();
+        return block;
+    }
+
+    private static short[] flatten(List<short[]> blocks, int size) {
+        short[] table = new short[Math.max(blocks.size(), 1) * size];
+        for (int b = 0; b < blocks.size(); b++) {
+            System.arraycopy(blocks.get(b), 0, table, b * size, size);
+        }
+        return table;
+    }
+}
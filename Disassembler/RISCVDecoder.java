@@ -0,0 +1,284 @@
+import java.nio.ByteBuffer;
+
+// Decodes for one base ISA, RV32 or RV64, with or without RVC. A file picks its decoder once
+// (ElfFile.decoder), so the decode loop only reads the final fields of that instance.
+public class RISCVDecoder {
+    public static final RISCVDecoder RV32 = new RISCVDecoder(OpCodes.RV32, null);
+    public static final RISCVDecoder RV64 = new RISCVDecoder(OpCodes.RV64, null);
+    private final short[] functTable, funct7Table, rs2Table;
+    private final Compressed rvc; // null when every instruction is 4 bytes
+
+    // the RVC decoders expand all 64K halfwords up front, so they are only created on first use
+    private static class WithRvc {
+        static final RISCVDecoder RV32C = new RISCVDecoder(OpCodes.RV32, new Compressed(false));
+        static final RISCVDecoder RV64C = new RISCVDecoder(OpCodes.RV64, new Compressed(true));
+    }
+
+    private RISCVDecoder(OpCodes.Tables tables, Compressed rvc) {
+        this.functTable = tables.functTable;
+        this.funct7Table = tables.funct7Table;
+        this.rs2Table = tables.rs2Table;
+        this.rvc = rvc;
+    }
+
+    // xlen is 32 or 64; with compressed set 2-byte RVC instructions are mixed in
+    public static RISCVDecoder of(int xlen, boolean compressed) {
+        if (compressed) {
+            return xlen == 64 ? WithRvc.RV64C : WithRvc.RV32C;
+        }
+        return xlen == 64 ? RV64 : RV32;
+    }
+
+    public boolean compressed() {
+        return rvc != null;
+    }
+
+    // Fills insn in place so the decode loop does not allocate. For a decoder with RVC, a word whose
+    // low two bits are not 11 is a compressed instruction in its low half.
+    public void decode(int word, Instruction insn) {
+        if (rvc != null && (word & 0b11) != 0b11) {
+            rvc.decode(word & 0xffff, insn);
+            return;
+        }
+        int opcode = word & 0x7f;
+        insn.word = word;
+        insn.length = 4;
+        insn.rd = (word >>> 7) & 0x1f;
+        insn.rs1 = (word >>> 15) & 0x1f;
+        insn.rs2 = (word >>> 20) & 0x1f;
+        insn.rs3 = word >>> 27;
+        insn.imm = 0;
+        int mnemonic = functTable[(opcode << 3) | ((word >>> 12) & 0x7)];
+        if (mnemonic < 0) {
+            mnemonic = funct7Table[((-mnemonic - 1) << 7) | (word >>> 25)];
+            if (mnemonic < 0) {
+                mnemonic = rs2Table[((-mnemonic - 1) << 5) | insn.rs2];
+            }
+        }
+        insn.mnemonic = mnemonic;
+        insn.format = OpCodes.formats[mnemonic];
+        switch (OpCodes.layouts[mnemonic]) {
+            case OpCodes.LAYOUT_I, OpCodes.LAYOUT_L -> insn.imm = word >> 20;
+            case OpCodes.LAYOUT_SH -> insn.imm = (word >>> 20) & 0x3f; // the tables only let RV64 set the top bit
+            case OpCodes.LAYOUT_S -> insn.imm = ((word >> 25) << 5) | ((word >>> 7) & 0x1f);
+            case OpCodes.LAYOUT_B -> insn.imm = ((word >> 31) << 12) | (((word >>> 7) & 0x1) << 11)
+                    | (((word >>> 25) & 0x3f) << 5) | (((word >>> 8) & 0xf) << 1);
+            case OpCodes.LAYOUT_U -> insn.imm = word & 0xfffff000;
+            case OpCodes.LAYOUT_J -> insn.imm = ((word >> 31) << 20) | (((word >>> 12) & 0xff) << 12)
+                    | (((word >>> 20) & 0x1) << 11) | (((word >>> 21) & 0x3ff) << 1);
+            case OpCodes.LAYOUT_CSR, OpCodes.LAYOUT_CSRI -> insn.imm = word >>> 20;
+            case OpCodes.LAYOUT_SYS -> {
+                // ecall, ebreak, mret... are whole words: rd and rs1 must be zero too
+                if ((word & 0x000f8f80) != 0) {
+                    insn.mnemonic = OpCodes.UNKNOWN;
+                    insn.format = Instruction.FORMAT_NONE;
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    // The instruction at offset of a little-endian buffer whose code ends at end. One that end cuts
+    // short (a 4-byte instruction with two or three bytes left, or a lone last byte) is an unknown
+    // instruction of just the bytes that are there, so nothing is read past the section.
+    public void decode(ByteBuffer code, int offset, int end, Instruction insn) {
+        int left = end - offset;
+        if (left >= 4) {
+            decode(code.getInt(offset), insn);
+            return;
+        }
+        int word = left >= 2 ? code.getShort(offset) & 0xffff : code.get(offset) & 0xff;
+        if (left >= 2 && length(word) == 2) {
+            decode(word, insn);
+            return;
+        }
+        if (left == 3) {
+            word |= (code.get(offset + 2) & 0xff) << 16;
+        }
+        insn.word = word;
+        insn.length = left;
+        insn.mnemonic = OpCodes.UNKNOWN;
+        insn.format = Instruction.FORMAT_NONE;
+        insn.rd = insn.rs1 = insn.rs2 = insn.rs3 = 0;
+        insn.imm = 0;
+    }
+
+    // length in bytes of the instruction starting with this halfword (or its low byte)
+    public int length(int half) {
+        return rvc != null && (half & 0b11) != 0b11 ? 2 : 4;
+    }
+
+    // Every 16-bit encoding of one base ISA decoded once into two flat tables. Operands are stored as
+    // the equivalent 32-bit instruction has them (c.addi rd gives rd and rs1, c.j has rd = zero and
+    // so on), only the format used for printing differs.
+    private static class Compressed {
+        private final boolean rv64;
+        private final int[] fields = new int[1 << 16]; // mnemonic | rd << 10 | rs1 << 15 | rs2 << 20
+        private final int[] imms = new int[1 << 16];
+
+        Compressed(boolean rv64) {
+            this.rv64 = rv64;
+            Instruction insn = new Instruction();
+            for (int half = 0; half < 1 << 16; half++) {
+                if ((half & 0b11) == 0b11) {
+                    continue;
+                }
+                insn.rd = insn.rs1 = insn.rs2 = insn.imm = 0;
+                int mnemonic = decodeSlow(half, insn);
+                fields[half] = mnemonic | (insn.rd << 10) | (insn.rs1 << 15) | (insn.rs2 << 20);
+                imms[half] = insn.imm;
+            }
+        }
+
+        void decode(int half, Instruction insn) {
+            int packed = fields[half];
+            int mnemonic = packed & 0x3ff;
+            insn.word = half;
+            insn.length = 2;
+            insn.mnemonic = mnemonic;
+            insn.format = OpCodes.formats[mnemonic];
+            insn.rd = (packed >>> 10) & 0x1f;
+            insn.rs1 = (packed >>> 15) & 0x1f;
+            insn.rs2 = (packed >>> 20) & 0x1f;
+            insn.rs3 = 0;
+            insn.imm = imms[half];
+        }
+
+        private int decodeSlow(int h, Instruction insn) {
+            int funct3 = h >>> 13;
+            int rdFull = (h >>> 7) & 0x1f;
+            int rs2Full = (h >>> 2) & 0x1f;
+            int rdPrime = 8 + ((h >>> 2) & 0x7); // bits 4:2
+            int rs1Prime = 8 + ((h >>> 7) & 0x7); // bits 9:7
+            int imm6 = ((((h >>> 7) & 0x20) | ((h >>> 2) & 0x1f)) << 26) >> 26; // imm[5] bit 12, imm[4:0] bits 6:2
+            int shamt = ((h >>> 7) & 0x20) | ((h >>> 2) & 0x1f);
+            int shamtLimit = rv64 ? 64 : 32;
+            switch ((h & 0b11) << 3 | funct3) {
+                case 0b00_000 -> { // c.addi4spn rd', sp, nzuimm
+                    int imm = ((h >>> 7) & 0x30) | ((h >>> 1) & 0x3c0) | ((h >>> 4) & 0x4) | ((h >>> 2) & 0x8);
+                    return imm == 0 ? OpCodes.UNKNOWN : set(insn, "c.addi4spn", rdPrime, 2, 0, imm);
+                }
+                case 0b00_010, 0b00_110 -> { // c.lw, c.sw
+                    int imm = ((h >>> 7) & 0x38) | ((h >>> 4) & 0x4) | ((h << 1) & 0x40);
+                    return funct3 == 0b010 ? set(insn, "c.lw", rdPrime, rs1Prime, 0, imm)
+                            : set(insn, "c.sw", 0, rs1Prime, rdPrime, imm);
+                }
+                case 0b00_011, 0b00_111 -> { // c.flw, c.fsw on RV32, c.ld, c.sd on RV64
+                    if (rv64) {
+                        int imm = ((h >>> 7) & 0x38) | ((h << 1) & 0xc0);
+                        return funct3 == 0b011 ? set(insn, "c.ld", rdPrime, rs1Prime, 0, imm)
+                                : set(insn, "c.sd", 0, rs1Prime, rdPrime, imm);
+                    }
+                    int imm = ((h >>> 7) & 0x38) | ((h >>> 4) & 0x4) | ((h << 1) & 0x40);
+                    return funct3 == 0b011 ? set(insn, "c.flw", rdPrime, rs1Prime, 0, imm)
+                            : set(insn, "c.fsw", 0, rs1Prime, rdPrime, imm);
+                }
+                case 0b01_000 -> { // c.addi rd, rd, imm, c.nop when rd is zero
+                    return rdFull == 0 ? set(insn, "c.nop", 0, 0, 0, imm6) : set(insn, "c.addi", rdFull, rdFull, 0, imm6);
+                }
+                case 0b01_001, 0b01_101 -> { // c.jal (c.addiw on RV64), c.j
+                    if (rv64 && funct3 == 0b001) {
+                        return rdFull == 0 ? OpCodes.UNKNOWN : set(insn, "c.addiw", rdFull, rdFull, 0, imm6);
+                    }
+                    int imm = ((h >>> 1) & 0x800) | ((h >>> 7) & 0x10) | ((h >>> 1) & 0x300) | ((h << 2) & 0x400)
+                            | ((h >>> 1) & 0x40) | ((h << 1) & 0x80) | ((h >>> 2) & 0xe) | ((h << 3) & 0x20);
+                    imm = (imm << 20) >> 20;
+                    return funct3 == 0b001 ? set(insn, "c.jal", 1, 0, 0, imm) : set(insn, "c.j", 0, 0, 0, imm);
+                }
+                case 0b01_010 -> {
+                    return set(insn, "c.li", rdFull, 0, 0, imm6);
+                }
+                case 0b01_011 -> {
+                    if (rdFull == 2) {
+                        int imm = ((h >>> 3) & 0x200) | ((h >>> 2) & 0x10) | ((h << 1) & 0x40) | ((h << 4) & 0x180)
+                                | ((h << 3) & 0x20);
+                        imm = (imm << 22) >> 22;
+                        return imm == 0 ? OpCodes.UNKNOWN : set(insn, "c.addi16sp", 2, 2, 0, imm);
+                    }
+                    return imm6 == 0 ? OpCodes.UNKNOWN : set(insn, "c.lui", rdFull, 0, 0, imm6 << 12);
+                }
+                case 0b01_100 -> {
+                    switch ((h >>> 10) & 0b11) {
+                        case 0b00 -> {
+                            return shamt >= shamtLimit ? OpCodes.UNKNOWN : set(insn, "c.srli", rs1Prime, rs1Prime, 0, shamt);
+                        }
+                        case 0b01 -> {
+                            return shamt >= shamtLimit ? OpCodes.UNKNOWN : set(insn, "c.srai", rs1Prime, rs1Prime, 0, shamt);
+                        }
+                        case 0b10 -> {
+                            return set(insn, "c.andi", rs1Prime, rs1Prime, 0, imm6);
+                        }
+                        default -> {
+                            if ((h & 0x1000) != 0) {
+                                // subw and addw are RV64, the other two are reserved
+                                int op = (h >>> 5) & 0b11;
+                                if (!rv64 || op > 0b01) {
+                                    return OpCodes.UNKNOWN;
+                                }
+                                return set(insn, op == 0 ? "c.subw" : "c.addw", rs1Prime, rs1Prime, rdPrime, 0);
+                            }
+                            String name = switch ((h >>> 5) & 0b11) {
+                                case 0b00 -> "c.sub";
+                                case 0b01 -> "c.xor";
+                                case 0b10 -> "c.or";
+                                default -> "c.and";
+                            };
+                            return set(insn, name, rs1Prime, rs1Prime, rdPrime, 0);
+                        }
+                    }
+                }
+                case 0b01_110, 0b01_111 -> { // c.beqz, c.bnez rs1', zero, offset
+                    int imm = ((h >>> 4) & 0x100) | ((h >>> 7) & 0x18) | ((h << 1) & 0xc0) | ((h >>> 2) & 0x6)
+                            | ((h << 3) & 0x20);
+                    imm = (imm << 23) >> 23;
+                    return set(insn, funct3 == 0b110 ? "c.beqz" : "c.bnez", 0, rs1Prime, 0, imm);
+                }
+                case 0b10_000 -> {
+                    return shamt >= shamtLimit ? OpCodes.UNKNOWN : set(insn, "c.slli", rdFull, rdFull, 0, shamt);
+                }
+                case 0b10_010, 0b10_011 -> { // c.lwsp, c.flwsp (c.ldsp on RV64)
+                    if (rv64 && funct3 == 0b011) {
+                        int imm = ((h >>> 7) & 0x20) | ((h >>> 2) & 0x18) | ((h << 4) & 0x1c0);
+                        return rdFull == 0 ? OpCodes.UNKNOWN : set(insn, "c.ldsp", rdFull, 2, 0, imm);
+                    }
+                    int imm = ((h >>> 7) & 0x20) | ((h >>> 2) & 0x1c) | ((h << 4) & 0xc0);
+                    if (funct3 == 0b010) {
+                        return rdFull == 0 ? OpCodes.UNKNOWN : set(insn, "c.lwsp", rdFull, 2, 0, imm);
+                    }
+                    return set(insn, "c.flwsp", rdFull, 2, 0, imm);
+                }
+                case 0b10_100 -> {
+                    if ((h & 0x1000) == 0) {
+                        if (rs2Full == 0) {
+                            return rdFull == 0 ? OpCodes.UNKNOWN : set(insn, "c.jr", 0, rdFull, 0, 0);
+                        }
+                        return set(insn, "c.mv", rdFull, rs2Full, 0, 0);
+                    }
+                    if (rs2Full == 0) {
+                        return rdFull == 0 ? set(insn, "c.ebreak", 0, 0, 0, 0) : set(insn, "c.jalr", 1, rdFull, 0, 0);
+                    }
+                    return set(insn, "c.add", rdFull, rdFull, rs2Full, 0);
+                }
+                case 0b10_110, 0b10_111 -> { // c.swsp, c.fswsp (c.sdsp on RV64)
+                    if (rv64 && funct3 == 0b111) {
+                        return set(insn, "c.sdsp", 0, 2, rs2Full, ((h >>> 7) & 0x38) | ((h >>> 1) & 0x1c0));
+                    }
+                    int imm = ((h >>> 7) & 0x3c) | ((h >>> 1) & 0xc0);
+                    return set(insn, funct3 == 0b110 ? "c.swsp" : "c.fswsp", 0, 2, rs2Full, imm);
+                }
+                default -> {
+                    return OpCodes.UNKNOWN; // the all-zero halfword, and the D and RV128 encodings
+                }
+            }
+        }
+
+        private static int set(Instruction insn, String name, int rd, int rs1, int rs2, int imm) {
+            insn.rd = rd;
+            insn.rs1 = rs1;
+            insn.rs2 = rs2;
+            insn.imm = imm;
+            return OpCodes.mnemonicId(name);
+        }
+    }
+}
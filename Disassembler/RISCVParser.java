@@ -1,180 +1,620 @@
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Pattern;
 
+// Listing of one or more code sections. All of them share one label table, so a branch into
+// another section gets the same LN label there, and both passes run over all sections at once
+// (split into chunks when parallel). Addresses are the low 32 bits of the real ones; sections
+// outside the 4 GB window of addressBase are left out. Sections of relocatable objects are listed at
+// their ElfSectionHeader.layoutAddr.
 public class RISCVParser {
-    private static final String LabelStrTemplate = "%08x   <%s>:\n";
-    private static final String ThreeArgumentInstructionTemplate = "   %05x:\t%08x\t%7s\t%s, %s, %s\n";
-    private static final String ThreeArgumentBranchInstructionTemplate = "   %05x:\t%08x\t%7s\t%s, %s, 0x%05x <%s>\n";
-    private static final String TwoArgumentJalInstructionTemplate = "   %05x:\t%08x\t%7s\t%s, 0x%05x <%s>\n";
-    private static final String TwoArgumentUtypeInstructionTemplate = "   %05x:\t%08x\t%7s\t%s, 0x%x\n";
-    private static final String ZeroArgumentInstructionTemplate = "   %05x:\t%08x\t%7s\n";
-    private static final String LoadStoreInstructionTemplate = "   %05x:\t%08x\t%7s\t%s, %s(%s)\n";
-    private final int[] elf;
-    private final OutputStream out;
-    private final int textStart, textSize, textAddr;
-    private final Map<Integer, String> labels;
-    private int labelNum = 0;
-
-    public RISCVParser(int[] elf, OutputStream out, Map<Integer, String> labels, int textStart, int textSize, int textAddr) {
-        this.elf = elf;
+    private static final String[] REGISTERS = OpCodes.registerNames.toArray(new String[0]);
+    private static final String[] FLOAT_REGISTERS = OpCodes.floatRegisterNames.toArray(new String[0]);
+    public static final int CHUNK_SIZE = 1 << 18; // bytes of .text per parallel task, a multiple of 4
+    // from, to (file offsets), address - offset, section to name first or -1, end of the section's contents
+    public static final int RANGE_FIELDS = 5;
+    private static final int CACHE_VERSION = 5; // bump when the listing format changes
+    private final ByteBuffer elf;
+    private final LineWriter out;
+    private final String[] sectionNames; // header line printed before each section, null for none
+    private final int[] ranges; // RANGE_FIELDS per range that passes the filters, sorted and disjoint per section
+    private final long addressBase; // upper half of the addresses, ELF64 only
+    private final int xlen; // 32 or 64, ELF64 files hold RV64 code
+    private final int labelDigits; // 8 for ELF32, 16 for ELF64
+    private final SymbolIndex symbols;
+    private final IntIntMap localLabels = new IntIntMap(); // address -> N of the generated "LN" label
+    private final int threads;
+    private final boolean relativeLabels;
+    private final boolean compressed; // EF_RISCV_RVC: 2-byte instructions are mixed in
+    private final RISCVDecoder decoder;
+    private final DisassemblerOptions options;
+    private final InstructionStats stats;
+    private final Metrics metrics;
+    private DisassemblyCache cache;
+    private IntIntMap cachedFunctions; // start -> end offset of functions whose listing goes through the cache
+
+    public RISCVParser(ElfFile file, LineWriter out, SymbolIndex symbols, int textStart, int textSize, long textAddr) {
+        this(file, out, symbols, textStart, textSize, textAddr, new DisassemblerOptions());
+    }
+
+    // textAddr is the address of the byte at textStart; the range must stay in one 4 GB window.
+    // No section name is printed. An instruction at the end of the range may run on to the end of the
+    // section that holds it.
+    public RISCVParser(ElfFile file, LineWriter out, SymbolIndex symbols, int textStart, int textSize, long textAddr,
+                       DisassemblerOptions options) {
+        this(file, out, symbols, new int[]{textStart}, new int[]{textSize},
+                new int[]{sectionEnd(file, textStart, textStart + textSize)}, new long[]{textAddr}, new String[1],
+                file.is64() ? textAddr & ~0xffffffffL : 0, options);
+    }
+
+    // every section in the list, each after a line with its name
+    public RISCVParser(ElfFile file, LineWriter out, SymbolIndex symbols, List<ElfSectionHeader> sections,
+                       DisassemblerOptions options) {
+        this(file, out, symbols, sections.stream().mapToInt(section -> section.offset).toArray(),
+                sections.stream().mapToInt(section -> section.size).toArray(),
+                sections.stream().mapToInt(section -> section.offset + section.size).toArray(),
+                sections.stream().mapToLong(section -> section.layoutAddr).toArray(),
+                sections.stream().map(section -> section.name).toArray(String[]::new), file.addressBase(), options);
+    }
+
+    private RISCVParser(ElfFile file, LineWriter out, SymbolIndex symbols, int[] starts, int[] sizes, int[] ends,
+                        long[] addrs, String[] names, long addressBase, DisassemblerOptions options) {
+        this.elf = file.buffer();
         this.out = out;
-        this.labels = new HashMap<>(labels);
-        this.textStart = textStart;
-        this.textSize = textSize;
-        this.textAddr = textAddr - textStart;
+        this.symbols = symbols;
+        this.sectionNames = names;
+        this.addressBase = addressBase;
+        this.xlen = file.is64() ? 64 : 32;
+        this.labelDigits = file.is64() ? 16 : 8;
+        this.threads = options.threads;
+        this.relativeLabels = options.relativeLabels;
+        this.decoder = file.decoder();
+        this.compressed = decoder.compressed();
+        this.options = options;
+        this.stats = options.stats;
+        this.metrics = options.metrics == null ? new Metrics() : options.metrics;
+        IntList ranges = new IntList();
+        Pattern pattern = options.symbolPatterns.isEmpty() ? null : globPattern(options.symbolPatterns);
+        for (int s = 0; s < starts.length; s++) {
+            if ((addrs[s] & ~0xffffffffL) == addressBase) {
+                selectRanges(s, starts[s], sizes[s], ends[s], (int) addrs[s], pattern, ranges);
+            }
+        }
+        this.ranges = ranges.toArray();
     }
 
-    public void parseText() throws IOException {
-        List<String> commands = new ArrayList<>();
-        for (int i = textStart; i < textStart + textSize; i += 4) {
-            commands.add(parseLine(i));
-        }
-        for (int i = textStart; i < textStart + textSize; i += 4) {
-            checkForLabel(i);
-            out.write(commands.get((i - textStart) / 4).getBytes());
-        }
-    }
-
-    private void checkForLabel(int idx) throws IOException {
-        if (labels.containsKey(idx + textAddr)) {
-            out.write(String.format(LabelStrTemplate, idx + textAddr, labels.get(idx + textAddr)).getBytes());
-        }
-    }
-
-    private String getLabel(int value) {
-        if (labels.containsKey(value)) {
-            return labels.get(value);
-        }
-        labelNum++;
-        labels.put(value, "L" + (labelNum - 1));
-        return "L" + (labelNum - 1);
-    }
-
-    private String parseLine(int idx) {
-        StringBuilder out = new StringBuilder();
-        boolean[] code = convertToBits(get4Bytes(idx));
-        int opcode = getBits(code, 0, 7);
-        if (get4Bytes(idx) == 0b00000000000000000000000001110011) {
-            out.append(String.format(ZeroArgumentInstructionTemplate, idx + textAddr, get4Bytes(idx), "ecall"));
-            return out.toString();
-        } else if (get4Bytes(idx) == 0b00000000000100000000000001110011) {
-            out.append(String.format(ZeroArgumentInstructionTemplate, idx + textAddr, get4Bytes(idx), "ebreak"));
-            return out.toString();
-        }
-        if (!OpCodes.types.containsKey(opcode)) {
-            out.append(String.format(ZeroArgumentInstructionTemplate, idx + textAddr, get4Bytes(idx), "unknown_instruction"));
-            return out.toString();
-        }
-        char type = OpCodes.types.get(opcode);
-        int immSign = code[31] ? (-1) : 1;
-        if (type == 'R') {
-            String rd = OpCodes.registerNames.get(getBits(code, 7, 12));
-            int funct3 = getBits(code, 12, 15);
-            String rs1 = OpCodes.registerNames.get(getBits(code, 15, 20));
-            int funct7 = getBits(code, 25, 32);
-            String command = OpCodes.Rcodes.get(opcode).get(funct3).get(funct7);
-            if (opcode == 0b0010011) {
-                // shift
-                int shamt = getBits(code, 20, 25);
-                out.append(String.format(ThreeArgumentInstructionTemplate, idx + textAddr, get4Bytes(idx), command, rd, rs1, shamt));
-                return out.toString();
-            }
-            String rs2 = OpCodes.registerNames.get(getBits(code, 20, 25));
-            out.append(String.format(ThreeArgumentInstructionTemplate, idx + textAddr, get4Bytes(idx), command, rd, rs1, rs2));
-            return out.toString();
-        }
-        if (type == 'I') {
-            String rd = OpCodes.registerNames.get(getBits(code, 7, 12));
-            int funct3 = getBits(code, 12, 15);
-            String rs1 = OpCodes.registerNames.get(getBits(code, 15, 20));
-            int imm = reverseImm(getBits(code,20, 31), immSign, 11);
-            String command = OpCodes.Icodes.get(opcode).get(funct3);
-            if (opcode == 0b0000011 || opcode == 0b1100111) {
-                // load command or jalr
-                out.append(String.format(LoadStoreInstructionTemplate, idx + textAddr, get4Bytes(idx), command, rd, imm, rs1));
-            } else {
-                out.append(String.format(ThreeArgumentInstructionTemplate, idx + textAddr, get4Bytes(idx), command, rd, rs1, imm));
-            }
-            return out.toString();
-        }
-        if (type == 'S') {
-            int funct3 = getBits(code, 12, 15);
-            String rs1 = OpCodes.registerNames.get(getBits(code, 15, 20));
-            String rs2 = OpCodes.registerNames.get(getBits(code, 20, 25));
-            int imm = reverseImm(getBits(code, 7, 12) + (getBits(code, 25, 31) << 5), immSign, 11);
-            String command = OpCodes.Scodes.get(opcode).get(funct3);
-            if (opcode == 0b0100011) {
-                // store command
-                out.append(String.format(LoadStoreInstructionTemplate, idx + textAddr, get4Bytes(idx), command, rs2, imm, rs1));
+    // end of the contents of the section that holds [from, to), to itself when no section does
+    private static int sectionEnd(ElfFile file, int from, int to) {
+        for (ElfSectionHeader section : file.sections()) {
+            if (section.type != ElfFile.SHT_NOBITS && section.offset <= from
+                    && to <= section.offset + (long) section.size) {
+                return section.offset + section.size;
+            }
+        }
+        return to;
+    }
+
+    // The parts of a section that pass the symbol and address filters, as file offsets. The rest is
+    // never decoded, so it adds no labels and no stats. Ranges less than an instruction apart are
+    // merged so that an instruction running over the end of one range is not printed twice. Only the
+    // symbols inside the section are looked at, which keeps thousands of small sections cheap.
+    private void selectRanges(int section, int start, int size, int end, int addr, Pattern pattern, IntList res) {
+        long sectionFrom = addr & 0xffffffffL;
+        long sectionTo = Math.min(sectionFrom + (size & 0xffffffffL), 1L << 32);
+        if (pattern == null && options.addressRanges.isEmpty()) {
+            if (sectionTo > sectionFrom) {
+                res.add(start);
+                res.add(start + (int) (sectionTo - sectionFrom));
+                res.add(addr - start);
+                res.add(sectionNames[section] != null ? section : -1);
+                res.add(end);
+            }
+            return;
+        }
+        List<long[]> wanted = new ArrayList<>();
+        if (pattern == null) {
+            wanted.add(new long[]{sectionFrom, sectionTo});
+        } else {
+            for (int s = Math.max(symbols.floor(addr), 0); s < symbols.size()
+                    && (symbols.address(s) & 0xffffffffL) < sectionTo; s++) {
+                if (pattern.matcher(symbols.name(s)).matches()) {
+                    long from = symbols.address(s) & 0xffffffffL;
+                    long symbolSize = symbols.symbolSize(s) & 0xffffffffL;
+                    // a symbol without a size runs up to the next one
+                    long to = symbolSize != 0 ? from + symbolSize
+                            : s + 1 < symbols.size() ? symbols.address(s + 1) & 0xffffffffL : sectionTo;
+                    wanted.add(new long[]{from, to});
+                }
+            }
+        }
+        if (!options.addressRanges.isEmpty()) {
+            List<long[]> both = new ArrayList<>();
+            for (long[] range : options.addressRanges) {
+                long from = windowOffset(range[0]);
+                long to = windowOffset(range[1]);
+                for (long[] w : wanted) {
+                    both.add(new long[]{Math.max(w[0], from), Math.min(w[1], to)});
+                }
+            }
+            wanted = both;
+        }
+        long align = compressed ? 2 : 4;
+        int delta = addr - start;
+        int first = res.size();
+        wanted.sort((a, b) -> Long.compare(a[0], b[0]));
+        for (long[] w : wanted) {
+            long from = sectionFrom + ((Math.max(w[0], sectionFrom) - sectionFrom + align - 1) & -align);
+            long to = Math.min(w[1], sectionTo);
+            if (from >= to) {
+                continue;
+            }
+            int fromOffset = (int) from - delta;
+            int toOffset = (int) to - delta;
+            int last = res.size() - RANGE_FIELDS;
+            if (last >= first && fromOffset - res.get(last + 1) < 4) {
+                res.set(last + 1, Math.max(res.get(last + 1), toOffset));
             } else {
-                out.append(String.format(ThreeArgumentInstructionTemplate, idx + textAddr, get4Bytes(idx), command, rs1, rs2, imm));
+                res.add(fromOffset);
+                res.add(toOffset);
+                res.add(delta);
+                res.add(res.size() == first + 3 && sectionNames[section] != null ? section : -1);
+                res.add(end);
+            }
+        }
+    }
+
+    // full address clamped to the 4 GB window of the listing, as an offset from addressBase
+    private long windowOffset(long addr) {
+        if (Long.compareUnsigned(addr, addressBase) < 0) {
+            return 0;
+        }
+        return Long.compareUnsigned(addr - addressBase, 1L << 32) < 0 ? addr - addressBase : 1L << 32;
+    }
+
+    // "irq_*" style patterns, any of which may match the whole name; ? is a single character
+    private static Pattern globPattern(List<String> globs) {
+        StringBuilder regex = new StringBuilder();
+        for (String glob : globs) {
+            regex.append(regex.isEmpty() ? "" : "|");
+            for (String part : glob.split("(?=[*?])|(?<=[*?])")) {
+                regex.append(part.equals("*") ? ".*" : part.equals("?") ? "." : Pattern.quote(part));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    // the decoded code, RANGE_FIELDS ints per range
+    public int[] ranges() {
+        return ranges;
+    }
+
+    private int selectedSize() {
+        int size = 0;
+        for (int r = 0; r < ranges.length; r += RANGE_FIELDS) {
+            size += ranges[r + 1] - ranges[r];
+        }
+        return size;
+    }
+
+    public void parseText() throws IOException {
+        if (options.cacheDir != null) {
+            cache = new DisassemblyCache(options.cacheDir, options.cacheSize);
+            cachedFunctions = functionRanges();
+        }
+        int size = selectedSize();
+        if (threads > 1 && size > CHUNK_SIZE) {
+            parseTextParallel();
+        } else {
+            parseTextSequential();
+        }
+        if (cache != null) {
+            cache.evict();
+        }
+    }
+
+    private void parseTextSequential() throws IOException {
+        long start = metrics.start();
+        discoverLabels();
+        metrics.stop(Metrics.DECODE, start);
+        start = metrics.start();
+        writeRanges(ranges, 0, ranges.length, out, new Instruction());
+        metrics.stop(Metrics.FORMAT, start);
+    }
+
+    // First pass only discovers branch and jal targets, so labels keep their first-seen numbering.
+    // The instruction mix is counted here too, since every instruction is decoded even when the
+    // listing comes from the cache, and so are the instructions for the metrics.
+    public void discoverLabels() {
+        Instruction insn = new Instruction();
+        long decoded = 0;
+        InstructionStats.Counter counter = null;
+        if (stats != null) {
+            stats.reset(symbols, addressBase);
+            counter = stats.counter();
+        }
+        for (int r = 0; r < ranges.length; r += RANGE_FIELDS) {
+            int delta = ranges[r + 2];
+            for (int i = ranges[r]; i < ranges[r + 1]; i += insn.length) {
+                decoder.decode(elf, i, ranges[r + 4], insn);
+                decoded++;
+                if (counter != null) {
+                    counter.count(i + delta, insn.mnemonic);
+                }
+                if (insn.format == Instruction.FORMAT_BRANCH || insn.format == Instruction.FORMAT_JUMP) {
+                    addLabel(i + delta + insn.imm);
+                }
+            }
+        }
+        if (counter != null) {
+            stats.add(counter);
+        }
+        metrics.instructions += decoded;
+    }
+
+    // whether a label line is printed before the instruction at addr
+    public boolean hasLabel(int addr) {
+        return symbols.find(addr) >= 0 || localLabels.containsKey(addr);
+    }
+
+    // text of the label for addr as the listing prints it, null if there is none
+    public String labelText(int value) {
+        String label = symbols.nameAt(value);
+        if (label != null) {
+            return label;
+        }
+        int num = localLabels.get(value);
+        if (num >= 0) {
+            return "L" + num;
+        }
+        int func = relativeLabels ? symbols.containing(value) : -1;
+        return func < 0 ? null : symbols.name(func) + "+0x" + Integer.toHexString(value - symbols.address(func));
+    }
+
+    // N of the generated "LN" label at addr, -1 if there is none
+    public int localLabel(int addr) {
+        return localLabels.get(addr);
+    }
+
+    // Same two passes, but each is split into tasks of about CHUNK_SIZE bytes: a large range is cut
+    // into several, small ranges (one per section with -ffunction-sections) are grouped. Targets found
+    // in a task are numbered only after all previous tasks, which gives the sequential first-seen order.
+    private void parseTextParallel() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = metrics.start();
+            if (stats != null) {
+                stats.reset(symbols, addressBase);
+            }
+            int[] chunks = chunks();
+            IntList tasks = tasks(chunks);
+            List<ForkJoinTask<IntList>> targets = new ArrayList<>();
+            long[] decoded = new long[tasks.size()]; // instructions per task
+            for (int t = 0; t + 1 < tasks.size(); t++) {
+                int task = t;
+                targets.add(pool.submit(() -> collectTargets(chunks, tasks.get(task), tasks.get(task + 1),
+                        decoded, task)));
+            }
+            for (int t = 0; t < targets.size(); t++) {
+                IntList chunkTargets = targets.get(t).join();
+                for (int i = 0; i < chunkTargets.size(); i++) {
+                    addLabel(chunkTargets.get(i));
+                }
+                metrics.instructions += decoded[t];
+            }
+            metrics.stop(Metrics.DECODE, start);
+            start = metrics.start();
+            // labels are read-only from here on; keep a bounded number of formatted chunks in flight
+            ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+            for (int t = 0; t + 1 < tasks.size(); t++) {
+                int taskFrom = tasks.get(t);
+                int taskTo = tasks.get(t + 1);
+                pending.add(pool.submit(() -> formatRanges(chunks, taskFrom, taskTo)));
+                if (pending.size() >= threads * 2) {
+                    out.append(pending.poll().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.append(pending.poll().join());
+            }
+            metrics.stop(Metrics.FORMAT, start);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // The selected ranges cut at most CHUNK_SIZE apart, in the same RANGE_FIELDS layout; only the first
+    // piece of a range keeps its section header. With compressed code the cuts have to be instruction
+    // starts, which takes a walk over the length bits of every instruction.
+    private int[] chunks() {
+        IntList chunks = new IntList();
+        for (int r = 0; r < ranges.length; r += RANGE_FIELDS) {
+            int end = ranges[r + 1];
+            int next = ranges[r];
+            int header = ranges[r + 3];
+            for (int i = ranges[r]; i < end; i += decoder.length(elf.get(i))) {
+                if (i >= next) {
+                    if (i > ranges[r]) {
+                        chunks.add(i);
+                        chunks.add(ranges[r + 2]);
+                        chunks.add(header);
+                        chunks.add(ranges[r + 4]);
+                        header = -1;
+                    }
+                    chunks.add(i);
+                    next = i + CHUNK_SIZE;
+                    if (!compressed) {
+                        // a range shorter than 4 bytes would put i before its start
+                        i = Math.max(ranges[r], Math.min(next, end) - 4);
+                    }
+                }
+            }
+            chunks.add(end);
+            chunks.add(ranges[r + 2]);
+            chunks.add(header);
+            chunks.add(ranges[r + 4]);
+        }
+        return chunks.toArray();
+    }
+
+    // start offsets in chunks of tasks that cover about CHUNK_SIZE bytes each, chunks.length last
+    private static IntList tasks(int[] chunks) {
+        IntList tasks = new IntList();
+        int bytes = CHUNK_SIZE;
+        for (int c = 0; c < chunks.length; c += RANGE_FIELDS) {
+            if (bytes >= CHUNK_SIZE) {
+                tasks.add(c);
+                bytes = 0;
+            }
+            bytes += chunks[c + 1] - chunks[c];
+        }
+        tasks.add(chunks.length);
+        return tasks;
+    }
+
+    // jump targets in chunks[from..to); the number of instructions goes to decoded[task]
+    private IntList collectTargets(int[] chunks, int from, int to, long[] decoded, int task) {
+        IntList targets = new IntList();
+        Instruction insn = new Instruction();
+        InstructionStats.Counter counter = stats == null ? null : stats.counter();
+        long count = 0;
+        for (int c = from; c < to; c += RANGE_FIELDS) {
+            int delta = chunks[c + 2];
+            for (int i = chunks[c]; i < chunks[c + 1]; i += insn.length) {
+                decoder.decode(elf, i, chunks[c + 4], insn);
+                count++;
+                if (counter != null) {
+                    counter.count(i + delta, insn.mnemonic);
+                }
+                if (insn.format == Instruction.FORMAT_BRANCH || insn.format == Instruction.FORMAT_JUMP) {
+                    targets.add(i + delta + insn.imm);
+                }
+            }
+        }
+        if (counter != null) {
+            stats.add(counter);
+        }
+        decoded[task] = count;
+        return targets;
+    }
+
+    private byte[] formatRanges(int[] chunks, int from, int to) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LineWriter chunkOut = new LineWriter(bytes);
+        writeRanges(chunks, from, to, chunkOut, new Instruction());
+        chunkOut.flush();
+        return bytes.toByteArray();
+    }
+
+    // ranges[from..to) in the RANGE_FIELDS layout, each after its section name if it has one
+    private void writeRanges(int[] ranges, int from, int to, LineWriter out, Instruction insn) throws IOException {
+        for (int r = from; r < to; r += RANGE_FIELDS) {
+            if (ranges[r + 3] >= 0) {
+                out.append(sectionNames[ranges[r + 3]]).append('\n');
+            }
+            writeRange(ranges[r], ranges[r + 1], ranges[r + 2], ranges[r + 4], out, insn);
+        }
+    }
+
+    private void writeRange(int from, int to, int delta, int sectionEnd, LineWriter out, Instruction insn)
+            throws IOException {
+        for (int i = from; i < to; ) {
+            int end = cachedFunctions == null ? -1 : cachedFunctions.get(i);
+            if (end >= 0 && end <= to) {
+                writeCached(i, end, delta, sectionEnd, out, insn);
+                i = end;
+                continue;
+            }
+            checkForLabel(i + delta, out);
+            writeLine(i, delta, sectionEnd, out, insn);
+            i += insn.length;
+        }
+    }
+
+    private void writeCached(int from, int to, int delta, int sectionEnd, LineWriter out, Instruction insn)
+            throws IOException {
+        byte[] key = cacheKey(from, to, delta, sectionEnd, insn);
+        byte[] text = cache.get(key);
+        if (text == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            LineWriter functionOut = new LineWriter(bytes, 1 << 12);
+            for (int i = from; i < to; i += insn.length) {
+                checkForLabel(i + delta, functionOut);
+                writeLine(i, delta, sectionEnd, functionOut, insn);
             }
-            return out.toString();
+            functionOut.flush();
+            text = bytes.toByteArray();
+            cache.put(key, text);
         }
-        if (type == 'B') {
-            int funct3 = getBits(code, 12, 15);
-            String rs1 = OpCodes.registerNames.get(getBits(code, 15, 20));
-            String rs2 = OpCodes.registerNames.get(getBits(code, 20, 25));
-            int imm = reverseImm((getBits(code, 8, 12) << 1) +
-                    (getBits(code, 25, 31) << 5) +
-                    (getBits(code, 7, 8) << 11), immSign, 12);
-            String command = OpCodes.Bcodes.get(opcode).get(funct3);
-            out.append(String.format(ThreeArgumentBranchInstructionTemplate,
-                    idx + textAddr, get4Bytes(idx), command, rs1, rs2, idx + textAddr + imm, getLabel(idx + textAddr + imm)));
-            return out.toString();
+        out.append(text);
+    }
+
+    // Everything the function's listing depends on: its bytes, address, base ISA and decoding switches (RVC,
+    // function-relative labels), and the text of every label defined or referenced in it, since LN numbers
+    // shift when code elsewhere changes.
+    private byte[] cacheKey(int from, int to, int delta, int sectionEnd, Instruction insn) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        if (type == 'U') {
-            String rd = OpCodes.registerNames.get(getBits(code, 7, 12));
-            int imm = reverseImm(getBits(code, 12, 31), immSign, 31);
-            String command = OpCodes.Ucodes.get(opcode);
-            out.append(String.format(TwoArgumentUtypeInstructionTemplate, idx + textAddr, get4Bytes(idx), command, rd, imm));
-            return out.toString();
+        digest.update(elf.slice(from, to - from));
+        LineWriter keyOut = new LineWriter(new DigestOutputStream(OutputStream.nullOutputStream(), digest), 256);
+        keyOut.appendDec(CACHE_VERSION).append(' ').appendDec(xlen).append(compressed ? " c" : " -")
+                .append(relativeLabels ? " r " : " - ").appendHex(address(from + delta), 8).append('\n');
+        for (int i = from; i < to; i += insn.length) {
+            checkForLabel(i + delta, keyOut);
+            decoder.decode(elf, i, sectionEnd, insn);
+            if (insn.format == Instruction.FORMAT_BRANCH || insn.format == Instruction.FORMAT_JUMP) {
+                keyOut.appendHex(i + delta, 8).append(' ');
+                writeTarget(i + delta + insn.imm, keyOut);
+                keyOut.append('\n');
+            }
+        }
+        keyOut.flush();
+        return Arrays.copyOf(digest.digest(), 16);
+    }
+
+    // non-overlapping [value, value + size) ranges of FUNC symbols that lie inside one selected range,
+    // as file offsets
+    private IntIntMap functionRanges() {
+        IntIntMap functions = new IntIntMap();
+        long align = compressed ? 2 : 4;
+        for (int r = 0; r < ranges.length; r += RANGE_FIELDS) {
+            int rangeAddr = ranges[r] + ranges[r + 2];
+            long rangeSize = ranges[r + 1] - ranges[r];
+            long last = 0;
+            for (int s = Math.max(symbols.floor(rangeAddr), 0); s < symbols.size(); s++) {
+                long start = (symbols.address(s) & 0xffffffffL) - (rangeAddr & 0xffffffffL);
+                long size = symbols.symbolSize(s) & 0xffffffffL;
+                if (start >= rangeSize) {
+                    break;
+                }
+                if (start >= last && start % align == 0 && size > 0 && start + size <= rangeSize) {
+                    functions.put(ranges[r] + (int) start, ranges[r] + (int) ((start + size + align - 1) & -align));
+                    last = start + size;
+                }
+            }
         }
-        if (type == 'J') {
-            // jal
-            String rd = OpCodes.registerNames.get(getBits(code, 7, 12));
-            int imm = reverseImm((getBits(code, 21, 25) << 1) + (getBits(code, 25, 31) << 5) +
-                    (getBits(code, 20, 21) << 11 )+ (getBits(code, 12, 20) << 12), immSign, 20);
-            String command = OpCodes.Jcodes.get(opcode);
-            out.append(String.format(TwoArgumentJalInstructionTemplate, idx + textAddr, get4Bytes(idx), command, rd,
-                    idx + textAddr + imm, getLabel(idx + textAddr + imm)));
+        return functions;
+    }
+
+    // "%08x   <%s>:\n", "%016x" for ELF64
+    private void checkForLabel(int addr, LineWriter out) throws IOException {
+        if (hasLabel(addr)) {
+            out.appendHex(address(addr), labelDigits).append("   <");
+            writeLabel(addr, out);
+            out.append(">:\n");
         }
-        return out.toString();
     }
 
-    private boolean[] convertToBits(int x) {
-        boolean[] res = new boolean[32];
-        for (int i = 0; i < 32; i++) {
-            res[i] = false;
+    private void addLabel(int value) {
+        if (symbols.find(value) >= 0 || localLabels.containsKey(value)) {
+            return;
         }
-        String s = Integer.toBinaryString(x);
-        for (int i = 32 - s.length(); i < 32; i++) {
-            res[31 - i] = (s.charAt(i - 32 + s.length()) == '1');
+        // with relative labels a target inside a function is printed as func+0x1c and gets no label of its own
+        if (!relativeLabels || symbols.containing(value) < 0) {
+            localLabels.put(value, localLabels.size());
         }
-        return res;
     }
 
-    private int reverseImm(int imm, int sign, int bitSize) {
-        if (sign == 1) {
-            return imm;
+    private void writeLabel(int value, LineWriter out) throws IOException {
+        String label = symbols.nameAt(value);
+        if (label != null) {
+            out.append(label);
+            return;
         }
-        return ((1 << bitSize) - imm) * sign;
+        int num = localLabels.get(value);
+        if (num >= 0) {
+            out.append('L').appendDec(num);
+            return;
+        }
+        // "%s+0x%x", only reachable with relative labels
+        int func = symbols.containing(value);
+        out.append(symbols.name(func)).append("+0x").appendHex(value - symbols.address(func), 1);
     }
 
-    private int getBits(boolean[] n, int start, int end) {
-        StringBuilder binNum = new StringBuilder();
-        for (int i = end - 1; i >= start; i--) {
-            binNum.append(n[i] ? '1' : '0');
+    // "   %05x:\t%08x\t%7s" ("%04x    " for compressed words, fewer digits for the bytes left at the end
+    // of a section) followed by the operands of the instruction layout, e.g. "\t%s, %s, %s" for FORMAT_REG
+    private void writeLine(int idx, int delta, int sectionEnd, LineWriter out, Instruction insn) throws IOException {
+        int addr = idx + delta;
+        decoder.decode(elf, idx, sectionEnd, insn);
+        out.append("   ").appendHex(address(addr), 5).append(":\t")
+                .appendHex(insn.word, insn.length * 2).appendLeft("", 8 - insn.length * 2);
+        out.append('\t').appendRight(OpCodes.mnemonics[insn.mnemonic], 7);
+        int floats = OpCodes.floatRegisters[insn.mnemonic];
+        String rd = (floats & OpCodes.FLOAT_RD) != 0 ? FLOAT_REGISTERS[insn.rd] : REGISTERS[insn.rd];
+        String rs1 = (floats & OpCodes.FLOAT_RS1) != 0 ? FLOAT_REGISTERS[insn.rs1] : REGISTERS[insn.rs1];
+        String rs2 = (floats & OpCodes.FLOAT_RS2) != 0 ? FLOAT_REGISTERS[insn.rs2] : REGISTERS[insn.rs2];
+        switch (insn.format) {
+            case Instruction.FORMAT_REG -> out.append('\t').append(rd).append(", ").append(rs1).append(", ").append(rs2);
+            case Instruction.FORMAT_IMM -> out.append('\t').append(rd).append(", ").append(rs1).append(", ").appendDec(insn.imm);
+            case Instruction.FORMAT_LOAD -> out.append('\t').append(rd).append(", ")
+                    .appendDec(insn.imm).append('(').append(rs1).append(')');
+            case Instruction.FORMAT_STORE -> out.append('\t').append(rs2).append(", ")
+                    .appendDec(insn.imm).append('(').append(rs1).append(')');
+            case Instruction.FORMAT_BRANCH -> {
+                out.append('\t').append(rs1).append(", ").append(rs2).append(", ");
+                writeTarget(addr + insn.imm, out);
+            }
+            case Instruction.FORMAT_UPPER -> out.append('\t').append(rd).append(", 0x").appendHex(upperImm(insn.imm), 1);
+            case Instruction.FORMAT_JUMP -> {
+                out.append('\t').append(rd).append(", ");
+                writeTarget(addr + insn.imm, out);
+            }
+            case Instruction.FORMAT_AMO -> out.append('\t').append(rd).append(", ").append(rs2).append(", (").append(rs1).append(')');
+            case Instruction.FORMAT_LR -> out.append('\t').append(rd).append(", (").append(rs1).append(')');
+            case Instruction.FORMAT_R4 -> out.append('\t').append(rd).append(", ").append(rs1).append(", ").append(rs2)
+                    .append(", ").append((floats & OpCodes.FLOAT_RS3) != 0 ? FLOAT_REGISTERS[insn.rs3] : REGISTERS[insn.rs3]);
+            case Instruction.FORMAT_R2 -> out.append('\t').append(rd).append(", ").append(rs1);
+            case Instruction.FORMAT_CSR, Instruction.FORMAT_CSRI -> {
+                out.append('\t').append(rd).append(", ");
+                if (OpCodes.csrNames[insn.imm] != null) {
+                    out.append(OpCodes.csrNames[insn.imm]);
+                } else {
+                    out.append("0x").appendHex(insn.imm, 1);
+                }
+                out.append(", ");
+                if (insn.format == Instruction.FORMAT_CSR) {
+                    out.append(rs1);
+                } else {
+                    out.appendDec(insn.rs1);
+                }
+            }
+            case Instruction.FORMAT_RS -> out.append('\t').append(rs1);
+            case Instruction.FORMAT_RD_IMM -> out.append('\t').append(rd).append(", ").appendDec(insn.imm);
+            default -> {
+            }
         }
-        return Integer.parseInt(binNum.toString(), 2);
+        out.append('\n');
+    }
+
+    // "0x%05x <%s>"
+    private void writeTarget(int target, LineWriter out) throws IOException {
+        out.append("0x").appendHex(address(target), 5).append(" <");
+        writeLabel(target, out);
+        out.append('>');
     }
 
-    private int get4Bytes(int idx) {
-        return elf[idx + 3] * 256 * 256 * 256 + elf[idx + 2] * 256 * 256 + elf[idx + 1] * 256 + elf[idx];
+    // full address of one of the 32-bit addresses the parser works with
+    public long address(int addr) {
+        return addressBase | (addr & 0xffffffffL);
     }
+
+    // the listing has always shown the 19 low bits of the field with the sign bit on top
+    private static int upperImm(int imm) {
+        return ((imm >>> 12) & 0x7ffff) | (imm & 0x80000000);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+
+// RV32IMC interpreter over the .text of an ElfFile. The code is decoded once into two int arrays
+// (packed op, length and registers, immediate) indexed by slot: 4 bytes, or 2 bytes when the file has
+// compressed code. Compressed instructions run as the instruction they stand for. Branch and jal
+// targets are stored as slots.
+// Memory is one flat little-endian buffer covering every SHF_ALLOC section, followed by the stack;
+// a file whose sections and stack do not fit in one buffer inside the 32-bit address space is refused.
+// Writes to x0 go to a scratch register 32, so reads of x0 are always zero. Stores into .text do not
+// change the decoded code.
+//   java Simulator <elf> [max steps]
+public class Simulator {
+    private static final int ILLEGAL = 0, LUI = 1, AUIPC = 2, JAL = 3, JALR = 4,
+            BEQ = 5, BNE = 6, BLT = 7, BGE = 8, BLTU = 9, BGEU = 10,
+            LB = 11, LH = 12, LW = 13, LBU = 14, LHU = 15, SB = 16, SH = 17, SW = 18,
+            ADDI = 19, SLTI = 20, SLTIU = 21, XORI = 22, ORI = 23, ANDI = 24, SLLI = 25, SRLI = 26, SRAI = 27,
+            ADD = 28, SUB = 29, SLL = 30, SLT = 31, SLTU = 32, XOR = 33, SRL = 34, SRA = 35, OR = 36, AND = 37,
+            MUL = 38, MULH = 39, MULHSU = 40, MULHU = 41, DIV = 42, DIVU = 43, REM = 44, REMU = 45,
+            ECALL = 46, EBREAK = 47, FENCE = 48;
+    public static final int DEFAULT_STACK_SIZE = 1 << 20;
+
+    public interface SyscallHandler {
+        // called on ecall; return false to stop the simulation
+        boolean ecall(Simulator sim);
+    }
+
+    // newlib/Linux numbering: a7 = 64 write(a0 fd, a1 buf, a2 len) to out, a7 = 93 exit(a0)
+    public static SyscallHandler linuxStub(PrintStream out) {
+        return sim -> {
+            int[] r = sim.regs;
+            switch (r[17]) {
+                case 64 -> {
+                    if (r[10] == 1 || r[10] == 2) {
+                        for (int i = 0; i < r[12]; i++) {
+                            out.write(sim.memory.get(sim.offset(r[11] + i)));
+                        }
+                        out.flush();
+                        r[10] = r[12];
+                    } else {
+                        r[10] = -9; // EBADF
+                    }
+                    return true;
+                }
+                case 93, 94 -> {
+                    sim.exitCode = r[10];
+                    return false;
+                }
+                default -> {
+                    r[10] = -38; // ENOSYS
+                    return true;
+                }
+            }
+        };
+    }
+
+    public final int[] regs = new int[33];
+    public final ByteBuffer memory;
+    public final int memoryBase;
+    public int exitCode;
+    public long steps; // instructions executed so far
+    private final int[] ops; // op | length in slots << 6 | rd << 8 | rs1 << 16 | rs2 << 24
+    private final int[] imms;
+    private final int textAddr;
+    private final int shift; // log2 of the slot size
+    private int pc; // slot of the next instruction
+    private SyscallHandler syscalls = linuxStub(System.out);
+
+    public Simulator(ElfFile file) {
+        this(file, DEFAULT_STACK_SIZE);
+    }
+
+    public Simulator(ElfFile file, int stackSize) {
+        if (file.is64() || file.reader().bigEndian()) {
+            throw new IllegalStateException("Simulator runs little-endian RV32 code only");
+        }
+        ElfSectionHeader text = file.text();
+        textAddr = text == null ? 0 : (int) text.layoutAddr;
+        RISCVDecoder decoder = RISCVDecoder.of(32, file.compressed());
+        shift = decoder.compressed() ? 1 : 2;
+        int count = text == null ? 0 : text.size >> shift;
+        ops = new int[count];
+        imms = new int[count];
+        Instruction insn = new Instruction();
+        ByteBuffer elf = file.buffer();
+        for (int i = 0; i < count; i += insn.length >> shift) {
+            decoder.decode(elf, text.offset + (i << shift), text.offset + text.size, insn);
+            predecode(i, insn);
+        }
+
+        long low = Long.MAX_VALUE;
+        long high = 0;
+        for (ElfSectionHeader section : file.sections()) {
+            if ((section.flags & ElfFile.SHF_ALLOC) != 0) {
+                low = Math.min(low, section.layoutAddr & 0xffffffffL);
+                high = Math.max(high, (section.layoutAddr & 0xffffffffL) + (section.size & 0xffffffffL));
+            }
+        }
+        if (low > high) {
+            low = high = 0;
+        }
+        low &= ~0xfffL;
+        long size = high - low + stackSize;
+        if (size > Integer.MAX_VALUE - 8 || low + size > 1L << 32) {
+            throw new IllegalStateException(String.format(
+                    "Sections from 0x%x to 0x%x and a stack of %d bytes do not fit in memory", low, high, stackSize));
+        }
+        memoryBase = (int) low;
+        memory = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        for (ElfSectionHeader section : file.sections()) {
+            if ((section.flags & ElfFile.SHF_ALLOC) != 0 && section.type != ElfFile.SHT_NOBITS) {
+                memory.put(offset((int) section.layoutAddr), file.buffer(), section.offset, section.size);
+            }
+        }
+        regs[2] = memoryBase + memory.capacity() - 16; // sp
+        jumpTo((int) file.entry());
+        if (pc < 0) {
+            pc = 0;
+        }
+    }
+
+    public void setSyscallHandler(SyscallHandler syscalls) {
+        this.syscalls = syscalls;
+    }
+
+    public int pc() {
+        return textAddr + (pc << shift);
+    }
+
+    // runs until ebreak, an ecall that asks to stop or maxSteps instructions; returns whether it stopped by itself
+    public boolean run(long maxSteps) {
+        final int[] r = regs;
+        final int[] ops = this.ops;
+        final int[] imms = this.imms;
+        final ByteBuffer mem = memory;
+        final int base = memoryBase;
+        int pc = this.pc;
+        long n = 0;
+        try {
+            while (n < maxSteps) {
+                int code = ops[pc];
+                int imm = imms[pc];
+                int rd = (code >>> 8) & 0xff;
+                int rs1 = (code >>> 16) & 0xff;
+                int rs2 = code >>> 24;
+                int next = pc + ((code >>> 6) & 0x3);
+                n++;
+                switch (code & 0x3f) {
+                    case LUI, AUIPC -> { r[rd] = imm; pc = next; }
+                    case JAL -> { r[rd] = textAddr + (next << shift); pc = imm; }
+                    case JALR -> {
+                        int target = (r[rs1] + imm) & ~1;
+                        r[rd] = textAddr + (next << shift);
+                        pc = index(target);
+                    }
+                    case BEQ -> pc = r[rs1] == r[rs2] ? imm : next;
+                    case BNE -> pc = r[rs1] != r[rs2] ? imm : next;
+                    case BLT -> pc = r[rs1] < r[rs2] ? imm : next;
+                    case BGE -> pc = r[rs1] >= r[rs2] ? imm : next;
+                    case BLTU -> pc = Integer.compareUnsigned(r[rs1], r[rs2]) < 0 ? imm : next;
+                    case BGEU -> pc = Integer.compareUnsigned(r[rs1], r[rs2]) >= 0 ? imm : next;
+                    case LB -> { r[rd] = mem.get(r[rs1] + imm - base); pc = next; }
+                    case LH -> { r[rd] = mem.getShort(r[rs1] + imm - base); pc = next; }
+                    case LW -> { r[rd] = mem.getInt(r[rs1] + imm - base); pc = next; }
+                    case LBU -> { r[rd] = mem.get(r[rs1] + imm - base) & 0xff; pc = next; }
+                    case LHU -> { r[rd] = mem.getShort(r[rs1] + imm - base) & 0xffff; pc = next; }
+                    case SB -> { mem.put(r[rs1] + imm - base, (byte) r[rs2]); pc = next; }
+                    case SH -> { mem.putShort(r[rs1] + imm - base, (short) r[rs2]); pc = next; }
+                    case SW -> { mem.putInt(r[rs1] + imm - base, r[rs2]); pc = next; }
+                    case ADDI -> { r[rd] = r[rs1] + imm; pc = next; }
+                    case SLTI -> { r[rd] = r[rs1] < imm ? 1 : 0; pc = next; }
+                    case SLTIU -> { r[rd] = Integer.compareUnsigned(r[rs1], imm) < 0 ? 1 : 0; pc = next; }
+                    case XORI -> { r[rd] = r[rs1] ^ imm; pc = next; }
+                    case ORI -> { r[rd] = r[rs1] | imm; pc = next; }
+                    case ANDI -> { r[rd] = r[rs1] & imm; pc = next; }
+                    case SLLI -> { r[rd] = r[rs1] << imm; pc = next; }
+                    case SRLI -> { r[rd] = r[rs1] >>> imm; pc = next; }
+                    case SRAI -> { r[rd] = r[rs1] >> imm; pc = next; }
+                    case ADD -> { r[rd] = r[rs1] + r[rs2]; pc = next; }
+                    case SUB -> { r[rd] = r[rs1] - r[rs2]; pc = next; }
+                    case SLL -> { r[rd] = r[rs1] << r[rs2]; pc = next; }
+                    case SLT -> { r[rd] = r[rs1] < r[rs2] ? 1 : 0; pc = next; }
+                    case SLTU -> { r[rd] = Integer.compareUnsigned(r[rs1], r[rs2]) < 0 ? 1 : 0; pc = next; }
+                    case XOR -> { r[rd] = r[rs1] ^ r[rs2]; pc = next; }
+                    case SRL -> { r[rd] = r[rs1] >>> r[rs2]; pc = next; }
+                    case SRA -> { r[rd] = r[rs1] >> r[rs2]; pc = next; }
+                    case OR -> { r[rd] = r[rs1] | r[rs2]; pc = next; }
+                    case AND -> { r[rd] = r[rs1] & r[rs2]; pc = next; }
+                    case MUL -> { r[rd] = r[rs1] * r[rs2]; pc = next; }
+                    case MULH -> { r[rd] = (int) (((long) r[rs1] * r[rs2]) >> 32); pc = next; }
+                    case MULHSU -> { r[rd] = (int) (((long) r[rs1] * (r[rs2] & 0xffffffffL)) >> 32); pc = next; }
+                    case MULHU -> { r[rd] = (int) (((r[rs1] & 0xffffffffL) * (r[rs2] & 0xffffffffL)) >>> 32); pc = next; }
+                    case DIV -> { r[rd] = r[rs2] == 0 ? -1 : r[rs1] / r[rs2]; pc = next; }
+                    case DIVU -> { r[rd] = r[rs2] == 0 ? -1 : Integer.divideUnsigned(r[rs1], r[rs2]); pc = next; }
+                    case REM -> { r[rd] = r[rs2] == 0 ? r[rs1] : r[rs1] % r[rs2]; pc = next; }
+                    case REMU -> { r[rd] = r[rs2] == 0 ? r[rs1] : Integer.remainderUnsigned(r[rs1], r[rs2]); pc = next; }
+                    case FENCE -> pc = next;
+                    case ECALL -> {
+                        this.pc = pc;
+                        this.steps += n;
+                        n = 0;
+                        if (!syscalls.ecall(this)) {
+                            this.pc = next;
+                            return true;
+                        }
+                        pc = next;
+                    }
+                    case EBREAK -> {
+                        this.pc = pc;
+                        this.steps += n;
+                        return true;
+                    }
+                    default -> {
+                        this.pc = pc;
+                        this.steps += n - 1;
+                        throw new IllegalStateException(String.format("Illegal instruction at 0x%x", pc()));
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // ArrayIndexOutOfBounds: pc left .text, other IndexOutOfBounds: memory access outside the image
+            // the jump that left .text has run, a load or store that faulted has not
+            boolean inText = pc >= 0 && pc < ops.length;
+            this.pc = pc;
+            this.steps += inText ? n - 1 : n;
+            throw new IllegalStateException(inText
+                    ? String.format("Memory access out of bounds at 0x%x", pc())
+                    : "Jump outside .text", e);
+        }
+        this.pc = pc;
+        this.steps += n;
+        return false;
+    }
+
+    private void predecode(int i, Instruction insn) {
+        int op = switch (OpCodes.mnemonics[insn.mnemonic]) {
+            case "lui", "c.lui" -> LUI;
+            case "auipc" -> AUIPC;
+            case "jal", "c.jal", "c.j" -> JAL;
+            case "jalr", "c.jr", "c.jalr" -> JALR;
+            case "beq", "c.beqz" -> BEQ;
+            case "bne", "c.bnez" -> BNE;
+            case "blt" -> BLT;
+            case "bge" -> BGE;
+            case "bltu" -> BLTU;
+            case "bgeu" -> BGEU;
+            case "lb" -> LB;
+            case "lh" -> LH;
+            case "lw", "c.lw", "c.lwsp" -> LW;
+            case "lbu" -> LBU;
+            case "lhu" -> LHU;
+            case "sb" -> SB;
+            case "sh" -> SH;
+            case "sw", "c.sw", "c.swsp" -> SW;
+            case "addi", "c.addi", "c.addi4spn", "c.addi16sp", "c.li", "c.mv", "c.nop" -> ADDI;
+            case "slti" -> SLTI;
+            case "sltiu" -> SLTIU;
+            case "xori" -> XORI;
+            case "ori" -> ORI;
+            case "andi", "c.andi" -> ANDI;
+            case "slli", "c.slli" -> SLLI;
+            case "srli", "c.srli" -> SRLI;
+            case "srai", "c.srai" -> SRAI;
+            case "add", "c.add" -> ADD;
+            case "sub", "c.sub" -> SUB;
+            case "sll" -> SLL;
+            case "slt" -> SLT;
+            case "sltu" -> SLTU;
+            case "xor", "c.xor" -> XOR;
+            case "srl" -> SRL;
+            case "sra" -> SRA;
+            case "or", "c.or" -> OR;
+            case "and", "c.and" -> AND;
+            case "mul" -> MUL;
+            case "mulh" -> MULH;
+            case "mulhsu" -> MULHSU;
+            case "mulhu" -> MULHU;
+            case "div" -> DIV;
+            case "divu" -> DIVU;
+            case "rem" -> REM;
+            case "remu" -> REMU;
+            case "ecall" -> ECALL;
+            case "ebreak", "c.ebreak" -> EBREAK;
+            default -> insn.length == 4 && (insn.word & 0x7f) == 0b0001111 ? FENCE : ILLEGAL;
+        };
+        int imm = insn.imm;
+        switch (op) {
+            case AUIPC -> imm = textAddr + (i << shift) + imm;
+            case JAL, BEQ, BNE, BLT, BGE, BLTU, BGEU -> imm = index(textAddr + (i << shift) + imm);
+            default -> {
+            }
+        }
+        ops[i] = op | ((insn.length >> shift) << 6) | ((insn.rd == 0 ? 32 : insn.rd) << 8) | (insn.rs1 << 16)
+                | (insn.rs2 << 24);
+        imms[i] = imm;
+    }
+
+    private void jumpTo(int addr) {
+        pc = index(addr);
+    }
+
+    // slot of addr, -1 if it is outside .text or between slots
+    private int index(int addr) {
+        long offset = (addr & 0xffffffffL) - (textAddr & 0xffffffffL);
+        if (offset < 0 || offset >= (long) ops.length << shift || (offset & ((1 << shift) - 1)) != 0) {
+            return -1;
+        }
+        return (int) (offset >> shift);
+    }
+
+    private int offset(int addr) {
+        return addr - memoryBase;
+    }
+
+    public static void main(String[] args) {
+        try {
+            Simulator sim = new Simulator(ElfFile.open(Path.of(args[0])));
+            long maxSteps = args.length > 1 ? Long.parseLong(args[1]) : Long.MAX_VALUE;
+            long start = System.nanoTime();
+            boolean stopped = sim.run(maxSteps);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s after %d instructions, exit code %d, pc 0x%x (%.1f MIPS)%n",
+                    stopped ? "Stopped" : "Step limit reached", sim.steps, sim.exitCode, sim.pc(),
+                    sim.steps / seconds / 1e6);
+        } catch (UnsupportedFileFormatException e) {
+            System.out.println("Unsupported file format: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("I/O error: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            System.out.println("Simulation failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// NUL-terminated names of .strtab or .shstrtab, one byte per char. A lookup never reads outside the
+// table and stops after MAX_NAME_LENGTH bytes, so a table without NULs costs no more than a normal
+// one; offsets past the end give CORRUPT, as in readelf. Names are copied out in one bulk get, or
+// written to a LineWriter without becoming a String at all.
+public class StringTable {
+    public static final int MAX_NAME_LENGTH = 4096;
+    public static final String CORRUPT = "<corrupt>";
+    private final ByteBuffer elf;
+    private final int start;
+    private final int size;
+    private byte[] bytes = new byte[64];
+
+    // start and size must lie inside elf
+    public StringTable(ByteBuffer elf, int start, int size) {
+        this.elf = elf;
+        this.start = start;
+        this.size = size;
+    }
+
+    public String get(int offset) {
+        if (offset == 0 && size == 0) {
+            return "";
+        }
+        if (offset < 0 || offset >= size) {
+            return CORRUPT;
+        }
+        int from = start + offset;
+        int length = end(from, offset) - from;
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        elf.get(from, bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    // length of get(offset) without decoding it
+    public int length(int offset) {
+        if (offset == 0 && size == 0) {
+            return 0;
+        }
+        if (offset < 0 || offset >= size) {
+            return CORRUPT.length();
+        }
+        return end(start + offset, offset) - (start + offset);
+    }
+
+    // appends get(offset) straight from the file
+    public void write(int offset, LineWriter out) throws IOException {
+        if (offset == 0 && size == 0) {
+            return;
+        }
+        if (offset < 0 || offset >= size) {
+            out.append(CORRUPT);
+            return;
+        }
+        int from = start + offset;
+        out.append(elf, from, end(from, offset) - from);
+    }
+
+    // position of the NUL after the name at from, or of the cut
+    private int end(int from, int offset) {
+        int end = from + Math.min(size - offset, MAX_NAME_LENGTH);
+        int to = from;
+        while (to < end && elf.get(to) != 0) {
+            to++;
+        }
+        return to;
+    }
+}
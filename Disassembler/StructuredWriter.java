@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Machine-readable alternatives to the text listing, selected with --format.
+//
+// jsonl: one JSON object per line, first every instruction of the code sections, then every .symtab entry:
+//   {"type":"insn","addr":65652,"word":3214125,"length":4,"id":7,"mnemonic":"sw","format":"store","rd":19,
+//    "rs1":26,"rs2":7,"rs3":0,"imm":435,"label":"func","target":65700,"targetLabel":"L3"}
+//   {"type":"symbol","idx":1,"name":"func","value":65652,"size":16,"symType":"FUNC","bind":"GLOBAL",
+//    "vis":"DEFAULT","index":"1"}
+// "label" is only present when the listing prints a label before the instruction, "target" and
+// "targetLabel" only for branches and jal. Addresses are full 64-bit values for ELF64 files. Compressed
+// instructions have length 2 and the 16 bits in "word"; their operands are those of the equivalent 32-bit
+// instruction. Register numbers index f registers where the mnemonic takes them (OpCodes.floatRegisters).
+// Names are read from the file as UTF-8, and whatever is not printable ASCII is written as JSON escapes.
+//
+// binary: little-endian, fixed-width records so the file can be mapped and indexed directly.
+//   header, 32 bytes:  "RVDB", version, mnemonic count, symbol count, instruction count, strings size,
+//                      XLEN (32 or 64), reserved int
+//   mnemonic table:    per id: name offset, name length (8 bytes)
+//   symbol records:    value (8), size (8), name offset, name length, info (1), other (1), shndx (2) (28 bytes)
+//   instruction records: addr (8), word, mnemonic id (2), format (1), rd (1), rs1 (1), rs2 (1), length (1),
+//                      rs3 (1), imm, target (8), target LN label or -1, LN label defined at addr or -1 (40 bytes)
+//   strings:           names referenced by offset from the start of this block, not NUL-terminated
+// Function labels are not repeated in the records; look them up by address in the symbol records.
+public class StructuredWriter {
+    public static final int BINARY_VERSION = 3; // 2: length and rs3 in the instruction records, 3: 64-bit addresses
+    public static final int BINARY_HEADER_SIZE = 32;
+    public static final int BINARY_MNEMONIC_SIZE = 8;
+    public static final int BINARY_SYMBOL_SIZE = 28;
+    public static final int BINARY_INSTRUCTION_SIZE = 40;
+    private static final String[] FORMAT_NAMES = {"none", "reg", "imm", "load", "store", "branch", "upper", "jump",
+            "amo", "lr", "r4", "r2", "csr", "csri", "rs", "rdImm"};
+    private final ElfFile file;
+    private final LineWriter out;
+    private final DisassemblerOptions options;
+    private final RISCVParser labels;
+    private final RISCVDecoder decoder;
+
+    public StructuredWriter(ElfFile file, OutputStream out, DisassemblerOptions options) {
+        this.file = file;
+        this.out = new LineWriter(out);
+        this.options = options;
+        this.decoder = file.decoder();
+        this.labels = new RISCVParser(file, this.out, file.functions(), file.codeSections(options.section), options);
+    }
+
+    public void write() throws IOException {
+        labels.discoverLabels();
+        switch (options.format) {
+            case "jsonl" -> writeJsonLines();
+            case "binary" -> writeBinary();
+            default -> throw new IllegalArgumentException("Unknown output format: " + options.format);
+        }
+        out.flush();
+    }
+
+    private void writeJsonLines() throws IOException {
+        Instruction insn = new Instruction();
+        int[] ranges = labels.ranges();
+        for (int r = 0; r < ranges.length; r += RISCVParser.RANGE_FIELDS) {
+            for (int i = ranges[r]; i < ranges[r + 1]; i += insn.length) {
+                int addr = i + ranges[r + 2];
+                decoder.decode(file.buffer(), i, ranges[r + 4], insn);
+                out.append("{\"type\":\"insn\",\"addr\":").appendUnsigned(labels.address(addr))
+                        .append(",\"word\":").appendUnsigned(insn.word)
+                        .append(",\"length\":").appendDec(insn.length)
+                        .append(",\"id\":").appendDec(insn.mnemonic)
+                        .append(",\"mnemonic\":").appendJson(OpCodes.mnemonics[insn.mnemonic])
+                        .append(",\"format\":").appendJson(FORMAT_NAMES[insn.format])
+                        .append(",\"rd\":").appendDec(insn.rd)
+                        .append(",\"rs1\":").appendDec(insn.rs1)
+                        .append(",\"rs2\":").appendDec(insn.rs2)
+                        .append(",\"rs3\":").appendDec(insn.rs3)
+                        .append(",\"imm\":").appendDec(insn.imm);
+                if (labels.hasLabel(addr)) {
+                    out.append(",\"label\":").appendJson(labels.labelText(addr));
+                }
+                if (insn.format == Instruction.FORMAT_BRANCH || insn.format == Instruction.FORMAT_JUMP) {
+                    out.append(",\"target\":").appendUnsigned(labels.address(addr + insn.imm))
+                            .append(",\"targetLabel\":").appendJson(labels.labelText(addr + insn.imm));
+                }
+                out.append("}\n");
+            }
+        }
+        SymbolTable symbols = file.symbolTable();
+        for (int idx = 0; idx < symbols.count; idx++) {
+            out.append("{\"type\":\"symbol\",\"idx\":").appendDec(idx)
+                    .append(",\"name\":").appendJson(symbols.name(idx))
+                    .append(",\"value\":").appendUnsigned(symbols.value(idx))
+                    .append(",\"size\":").appendUnsigned(symbols.size(idx))
+                    .append(",\"symType\":").appendJson(ElfFile.getSymbolType(symbols.type(idx)))
+                    .append(",\"bind\":").appendJson(ElfFile.getSymbolBind(symbols.bind(idx)))
+                    .append(",\"vis\":").appendJson(ElfFile.getSymbolVis(symbols.vis(idx)))
+                    .append(",\"index\":");
+            String reserved = ElfFile.getReservedIndex(symbols.shndx[idx]);
+            if (reserved != null) {
+                out.appendJson(reserved);
+            } else {
+                out.append('"').appendDec(symbols.shndx[idx]).append('"');
+            }
+            out.append("}\n");
+        }
+    }
+
+    private void writeBinary() throws IOException {
+        int mnemonics = OpCodes.mnemonics.length;
+        SymbolTable symbols = file.symbolTable();
+        int count = instructionCount();
+        int stringsSize = 0;
+        for (String name : OpCodes.mnemonics) {
+            stringsSize += name == null ? 0 : name.length();
+        }
+        for (int idx = 0; idx < symbols.count; idx++) {
+            stringsSize += symbols.nameLength(idx);
+        }
+        out.append("RVDB").writeInt(BINARY_VERSION).writeInt(mnemonics).writeInt(symbols.count).writeInt(count)
+                .writeInt(stringsSize).writeInt(file.is64() ? 64 : 32).writeInt(0);
+
+        int stringOffset = 0;
+        for (String name : OpCodes.mnemonics) {
+            int length = name == null ? 0 : name.length();
+            out.writeInt(stringOffset).writeInt(length);
+            stringOffset += length;
+        }
+        for (int idx = 0; idx < symbols.count; idx++) {
+            int length = symbols.nameLength(idx);
+            out.writeLong(symbols.value(idx)).writeLong(symbols.size(idx)).writeInt(stringOffset).writeInt(length)
+                    .writeByte(symbols.infos[idx]).writeByte(symbols.others[idx]).writeShort(symbols.shndx[idx]);
+            stringOffset += length;
+        }
+
+        Instruction insn = new Instruction();
+        int[] ranges = labels.ranges();
+        for (int r = 0; r < ranges.length; r += RISCVParser.RANGE_FIELDS) {
+            for (int i = ranges[r]; i < ranges[r + 1]; i += insn.length) {
+                int addr = i + ranges[r + 2];
+                decoder.decode(file.buffer(), i, ranges[r + 4], insn);
+                boolean jump = insn.format == Instruction.FORMAT_BRANCH || insn.format == Instruction.FORMAT_JUMP;
+                out.writeLong(labels.address(addr)).writeInt(insn.word).writeShort(insn.mnemonic).writeByte(insn.format)
+                        .writeByte(insn.rd).writeByte(insn.rs1).writeByte(insn.rs2).writeByte(insn.length).writeByte(insn.rs3)
+                        .writeInt(insn.imm)
+                        .writeLong(jump ? labels.address(addr + insn.imm) : 0)
+                        .writeInt(jump ? labels.localLabel(addr + insn.imm) : -1)
+                        .writeInt(labels.localLabel(addr));
+            }
+        }
+
+        for (String name : OpCodes.mnemonics) {
+            if (name != null) {
+                out.append(name);
+            }
+        }
+        for (int idx = 0; idx < symbols.count; idx++) {
+            symbols.writeName(idx, out);
+        }
+    }
+
+    private int instructionCount() {
+        int[] ranges = labels.ranges();
+        int count = 0;
+        for (int r = 0; r < ranges.length; r += RISCVParser.RANGE_FIELDS) {
+            if (!decoder.compressed()) {
+                count += (ranges[r + 1] - ranges[r] + 3) / 4;
+                continue;
+            }
+            for (int i = ranges[r]; i < ranges[r + 1]; i += decoder.length(file.buffer().get(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Function symbols sorted by address in parallel primitive arrays. Exact lookups go through a hash
+// map, nearest-preceding lookups are a binary search. Addresses compare unsigned.
+// Call build() after the last add() and before the first query.
+public class SymbolIndex {
+    private IntList addedValues = new IntList();
+    private IntList addedSizes = new IntList();
+    private List<String> addedNames = new ArrayList<>();
+    private int[] addresses;
+    private int[] sizes;
+    private String[] names;
+    private final IntIntMap exact = new IntIntMap(); // address -> position in the sorted arrays
+
+    public void add(int value, int size, String name) {
+        addedValues.add(value);
+        addedSizes.add(size);
+        addedNames.add(name);
+    }
+
+    public void build() {
+        int n = addedValues.size();
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            // address with the sign bit flipped in the high half, so a signed sort orders it unsigned;
+            // symtab order in the low half keeps equal addresses stable
+            order[i] = ((long) (addedValues.get(i) ^ Integer.MIN_VALUE) << 32) | i;
+        }
+        Arrays.sort(order);
+        addresses = new int[n];
+        sizes = new int[n];
+        names = new String[n];
+        for (int i = 0; i < n; i++) {
+            int from = (int) order[i];
+            addresses[i] = addedValues.get(from);
+            sizes[i] = addedSizes.get(from);
+            names[i] = addedNames.get(from);
+            // a later symbol at the same address replaces the earlier one, as it always has
+            exact.put(addresses[i], i);
+        }
+        // only the sorted arrays are used from here on
+        addedValues = null;
+        addedSizes = null;
+        addedNames = null;
+    }
+
+    public int size() {
+        return addresses.length;
+    }
+
+    public int address(int idx) {
+        return addresses[idx];
+    }
+
+    public int symbolSize(int idx) {
+        return sizes[idx];
+    }
+
+    public String name(int idx) {
+        return names[idx];
+    }
+
+    // position of the symbol that labels addr, -1 if there is none
+    public int find(int addr) {
+        return exact.get(addr);
+    }
+
+    public String nameAt(int addr) {
+        int idx = exact.get(addr);
+        return idx < 0 ? null : names[idx];
+    }
+
+    // position of the last symbol at or below addr, -1 if addr is below all of them
+    public int floor(int addr) {
+        int lo = 0;
+        int hi = addresses.length - 1;
+        int res = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Integer.compareUnsigned(addresses[mid], addr) <= 0) {
+                res = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return res;
+    }
+
+    // position of the symbol whose [value, value + size) range holds addr, -1 if there is none
+    public int containing(int addr) {
+        int idx = floor(addr);
+        if (idx >= 0 && Integer.compareUnsigned(addr - addresses[idx], sizes[idx]) < 0) {
+            return idx;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.IOException;
+
+// .symtab decoded once into primitive columns indexed like the table, in place of an ElfSymbol with
+// five Strings per entry. Type, bind, visibility and section index stay the numbers of st_info,
+// st_other and st_shndx; ElfFile.getSymbolType and the other tables name them when they are printed.
+// Values and sizes are int columns for ELF32 and long ones for ELF64. Names stay .strtab offsets:
+// the listing writes them straight from the file, and name() makes a new String on each call, which
+// only the FUNC labels and jsonl ask for. Nothing is kept per symbol beyond the columns. Not
+// thread-safe, like ElfFile.
+public class SymbolTable {
+    public final int count;
+    private final int[] values32, sizes32; // ELF32, unsigned
+    private final long[] values64, sizes64; // ELF64
+    public final int[] nameOffsets; // into .strtab, 0 for no name
+    public final byte[] infos; // st_info: type in the low 4 bits, bind in the high 4
+    public final byte[] others; // st_other, the visibility
+    public final char[] shndx;
+    private final StringTable strings;
+
+    public SymbolTable(ElfReader reader, int start, int count, StringTable strings) {
+        this.count = count;
+        this.strings = strings;
+        boolean is64 = reader.is64();
+        values32 = is64 ? null : new int[count];
+        sizes32 = is64 ? null : new int[count];
+        values64 = is64 ? new long[count] : null;
+        sizes64 = is64 ? new long[count] : null;
+        nameOffsets = new int[count];
+        infos = new byte[count];
+        others = new byte[count];
+        shndx = new char[count];
+        int entrySize = reader.symbolEntrySize();
+        for (int idx = 0, at = start; idx < count; idx++, at += entrySize) {
+            if (is64) {
+                values64[idx] = reader.symbolValue(at);
+                sizes64[idx] = reader.symbolSize(at);
+            } else {
+                values32[idx] = (int) reader.symbolValue(at);
+                sizes32[idx] = (int) reader.symbolSize(at);
+            }
+            nameOffsets[idx] = reader.symbolName(at);
+            infos[idx] = (byte) reader.symbolInfo(at);
+            others[idx] = (byte) reader.symbolOther(at);
+            shndx[idx] = (char) reader.symbolShndx(at);
+        }
+    }
+
+    public long value(int idx) {
+        return values64 != null ? values64[idx] : values32[idx] & 0xffffffffL;
+    }
+
+    public long size(int idx) {
+        return sizes64 != null ? sizes64[idx] : sizes32[idx] & 0xffffffffL;
+    }
+
+    public int type(int idx) {
+        return infos[idx] & 0xf;
+    }
+
+    public int bind(int idx) {
+        return (infos[idx] & 0xff) >> 4;
+    }
+
+    public int vis(int idx) {
+        return others[idx] & 0xff;
+    }
+
+    public String name(int idx) {
+        return nameOffsets[idx] == 0 ? "" : strings.get(nameOffsets[idx]);
+    }
+
+    // the name as it is stored, without making a String of it
+    public void writeName(int idx, LineWriter out) throws IOException {
+        if (nameOffsets[idx] != 0) {
+            strings.write(nameOffsets[idx], out);
+        }
+    }
+
+    // length of name(idx) in bytes
+    public int nameLength(int idx) {
+        return nameOffsets[idx] == 0 ? 0 : strings.length(nameOffsets[idx]);
+    }
+}
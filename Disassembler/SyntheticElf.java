@@ -0,0 +1,425 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Generates ELF32 RISC-V files with random but valid RV32IM code in .text, a .symtab with FUNC
+// symbols inside .text and any number of extra sections. With --rvc about a quarter of the
+// instructions are 16-bit RVC ones and e_flags has EF_RISCV_RVC set. --elf64 writes an ELF64 file
+// where about a quarter of the instructions are RV64I ones (ld, sd, lwu, the *w ops, 6-bit shifts),
+// --be writes the headers, sections and symbols big-endian; the code itself is always little-endian.
+// --split N spreads the code over N executable sections, .text and then .text.1 and so on after the
+// extra sections; with --rel as well the file is a relocatable object, where every section is at
+// address 0 and symbol values are offsets into their section. --code-last puts the code after the section
+// header table at the very end of the file, and --cut N then drops the last N bytes of it, so that the file
+// ends inside an instruction.
+// java SyntheticElf <out.elf> <instructions> [symbols] [extra sections] [seed] [--rvc] [--elf64] [--be]
+//                   [--split N] [--rel] [--code-last] [--cut N]
+public class SyntheticElf {
+    public static final int TEXT_ADDR = 0x10074;
+    private static final int HEADER_SIZE = 52, HEADER_SIZE_64 = 64;
+    private static final int SECTION_HEADER_SIZE_64 = 64, SYMBOL_SIZE_64 = 24;
+    private static final int[] I_FUNCT3 = {0b000, 0b010, 0b011, 0b100, 0b110, 0b111};
+    private static final int[] LOAD_FUNCT3 = {0b000, 0b001, 0b010, 0b100, 0b101};
+    private static final int[] BRANCH_FUNCT3 = {0b000, 0b001, 0b100, 0b101, 0b110, 0b111};
+
+    public static void main(String[] args) throws IOException {
+        int instructions = Integer.parseInt(args[1]);
+        int symbols = args.length > 2 ? Integer.parseInt(args[2]) : instructions / 64;
+        int sections = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        boolean compressed = false, is64 = false, bigEndian = false, relocatable = false, codeLast = false;
+        int textSections = 1, cut = 0;
+        for (int i = 5; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rvc" -> compressed = true;
+                case "--elf64" -> is64 = true;
+                case "--be" -> bigEndian = true;
+                case "--split" -> textSections = Integer.parseInt(args[++i]);
+                case "--rel" -> relocatable = true;
+                case "--code-last" -> codeLast = true;
+                case "--cut" -> cut = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        byte[] elf = generate(instructions, symbols, sections, seed, compressed, is64, bigEndian, textSections,
+                relocatable, codeLast);
+        Files.write(Path.of(args[0]), cut > 0 ? cutCode(elf, cut) : elf);
+    }
+
+    public static byte[] generate(int instructions, int symbols, int sections, long seed) {
+        return generate(instructions, symbols, sections, seed, false);
+    }
+
+    public static byte[] generate(int instructions, int symbols, int sections, long seed, boolean compressed) {
+        return generate(instructions, symbols, sections, seed, compressed, false, false);
+    }
+
+    public static byte[] generate(int instructions, int symbols, int sections, long seed, boolean compressed,
+                                  boolean is64, boolean bigEndian) {
+        return generate(instructions, symbols, sections, seed, compressed, is64, bigEndian, 1, false);
+    }
+
+    public static byte[] generate(int instructions, int symbols, int sections, long seed, boolean compressed,
+                                  boolean is64, boolean bigEndian, int textSections, boolean relocatable) {
+        return generate(instructions, symbols, sections, seed, compressed, is64, bigEndian, textSections,
+                relocatable, false);
+    }
+
+    public static byte[] generate(int instructions, int symbols, int sections, long seed, boolean compressed,
+                                  boolean is64, boolean bigEndian, int textSections, boolean relocatable,
+                                  boolean codeLast) {
+        Random random = new Random(seed);
+        int[] code = new int[instructions];
+        int[] offsets = null;
+        if (compressed) {
+            // lengths are chosen first so that branches can aim at real instruction starts
+            for (int i = 0; i < instructions; i++) {
+                code[i] = random.nextInt(4) == 0 ? randomCompressed(random, is64 ? 64 : 32) : 0b11;
+            }
+            offsets = offsets(code);
+        }
+        for (int i = 0; i < instructions; i++) {
+            if (!compressed || (code[i] & 0b11) == 0b11) {
+                code[i] = is64 && random.nextInt(4) == 0 ? randomInstruction64(random)
+                        : randomInstruction(random, i, instructions, offsets);
+            }
+        }
+        return build(code, symbols, sections, random, is64, bigEndian, textSections, relocatable, codeLast);
+    }
+
+    // ELF with the given .text code; values whose low two bits are not 11 are stored as 16-bit RVC
+    // instructions. The symbols are random FUNC ranges inside .text
+    public static byte[] build(int[] code, int symbols, int sections, Random random) {
+        return build(code, symbols, sections, random, false, false, 1, false, false);
+    }
+
+    public static byte[] build(int[] code, int symbols, int sections, Random random, boolean is64,
+                               boolean bigEndian, int textSections, boolean relocatable, boolean codeLast) {
+        int headerSize = is64 ? HEADER_SIZE_64 : HEADER_SIZE;
+        int sectionHeaderSize = is64 ? SECTION_HEADER_SIZE_64 : ElfFile.SECTION_HEADER_SIZE;
+        int symbolSize = is64 ? SYMBOL_SIZE_64 : ElfFile.SYMBOL_SIZE;
+        int alignment = is64 ? 8 : 4;
+        int instructions = code.length;
+        int[] offsets = offsets(code);
+        int textSize = offsets[instructions];
+        StringBuilder shStrings = new StringBuilder("\0.text\0.symtab\0.strtab\0.shstrtab\0");
+        int[] extraNames = new int[sections];
+        for (int i = 0; i < sections; i++) {
+            extraNames[i] = shStrings.length();
+            shStrings.append(".data.").append(i).append('\0');
+        }
+        int[] pieceStart = new int[textSections + 1]; // first instruction of each code section
+        int[] pieceNames = new int[textSections];
+        pieceNames[0] = 1;
+        for (int k = 1; k <= textSections; k++) {
+            pieceStart[k] = (int) ((long) instructions * k / textSections);
+            if (k < textSections) {
+                pieceNames[k] = shStrings.length();
+                shStrings.append(".text.").append(k).append('\0');
+            }
+        }
+        StringBuilder strings = new StringBuilder("\0");
+        int[] symbolNames = new int[symbols];
+        for (int i = 0; i < symbols; i++) {
+            symbolNames[i] = strings.length();
+            strings.append("func_").append(i).append('\0');
+        }
+        int sectionCount = 4 + sections + textSections;
+        int symtabOffset = align(headerSize + (codeLast ? 0 : textSize), alignment);
+        int strtabOffset = symtabOffset + (symbols + 1) * symbolSize;
+        int shStrtabOffset = align(strtabOffset + strings.length(), alignment);
+        int sectionsOffset = align(shStrtabOffset + shStrings.length(), alignment);
+        int textOffset = codeLast ? sectionsOffset + sectionCount * sectionHeaderSize : headerSize;
+        ByteBuffer elf = ByteBuffer.allocate(codeLast ? textOffset + textSize : sectionsOffset + sectionCount
+                * sectionHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        // instructions are little-endian whatever the byte order of the file
+        for (int i = 0; i < instructions; i++) {
+            if (offsets[i + 1] - offsets[i] == 2) {
+                elf.putShort(textOffset + offsets[i], (short) code[i]);
+            } else {
+                elf.putInt(textOffset + offsets[i], code[i]);
+            }
+        }
+        elf.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        elf.put(new byte[]{0x7f, 'E', 'L', 'F', (byte) (is64 ? 2 : 1), (byte) (bigEndian ? 2 : 1), 1});
+        elf.putShort(16, (short) (relocatable ? ElfFile.ET_REL : 2)); // or ET_EXEC
+        int entry = relocatable ? 0 : TEXT_ADDR;
+        elf.putShort(18, (short) 0xf3); // RISC-V
+        elf.putInt(20, 1);
+        int flags = textSize != instructions * 4 ? ElfFile.EF_RISCV_RVC : 0;
+        if (is64) {
+            elf.putLong(24, entry);
+            elf.putLong(40, sectionsOffset);
+            elf.putInt(48, flags);
+            elf.putShort(52, (short) headerSize);
+            elf.putShort(58, (short) sectionHeaderSize);
+            elf.putShort(60, (short) sectionCount);
+            elf.putShort(62, (short) 4);
+        } else {
+            elf.putInt(24, entry);
+            elf.putInt(32, sectionsOffset);
+            elf.putInt(ElfFile.FLAGS_OFFSET, flags);
+            elf.putShort(40, (short) headerSize);
+            elf.putShort(46, (short) sectionHeaderSize);
+            elf.putShort(48, (short) sectionCount);
+            elf.putShort(50, (short) 4);
+        }
+
+        for (int i = 0; i < symbols; i++) {
+            int at = symtabOffset + (i + 1) * symbolSize;
+            int start = instructions == 0 ? 0 : random.nextInt(instructions);
+            int value = TEXT_ADDR + offsets[start];
+            int size = offsets[Math.min(instructions, start + 1 + random.nextInt(64))] - offsets[start];
+            int piece = textSections == 1 ? 0 : pieceOf(pieceStart, start);
+            int shndx = piece == 0 ? 1 : 4 + sections + piece;
+            if (relocatable) {
+                value = offsets[start] - offsets[pieceStart[piece]];
+            }
+            elf.putInt(at, symbolNames[i]);
+            if (is64) {
+                elf.put(at + 4, (byte) (0x10 | 2)); // GLOBAL FUNC
+                elf.putShort(at + 6, (short) shndx);
+                elf.putLong(at + 8, value);
+                elf.putLong(at + 16, size);
+            } else {
+                elf.putInt(at + 4, value);
+                elf.putInt(at + 8, size);
+                elf.put(at + 12, (byte) (0x10 | 2)); // GLOBAL FUNC
+                elf.putShort(at + 14, (short) shndx);
+            }
+        }
+        putString(elf, strtabOffset, strings);
+        putString(elf, shStrtabOffset, shStrings);
+
+        int header = sectionsOffset + sectionHeaderSize; // section 0 stays empty
+        putCodeSection(elf, is64, header, 0, pieceNames, pieceStart, offsets, textOffset, relocatable);
+        header += sectionHeaderSize;
+        putSection(elf, is64, header, 7, 2, 0, 0, symtabOffset, (symbols + 1) * symbolSize, 3, 1, alignment,
+                symbolSize);
+        header += sectionHeaderSize;
+        putSection(elf, is64, header, 15, 3, 0, 0, strtabOffset, strings.length(), 0, 0, 1, 0);
+        header += sectionHeaderSize;
+        putSection(elf, is64, header, 23, 3, 0, 0, shStrtabOffset, shStrings.length(), 0, 0, 1, 0);
+        for (int i = 0; i < sections; i++) {
+            header += sectionHeaderSize;
+            // empty PROGBITS sections just to grow the section header table
+            putSection(elf, is64, header, extraNames[i], 1, 3, 0, sectionsOffset, 0, 0, 0, 1, 0);
+        }
+        for (int k = 1; k < textSections; k++) {
+            header += sectionHeaderSize;
+            putCodeSection(elf, is64, header, k, pieceNames, pieceStart, offsets, textOffset, relocatable);
+        }
+        return elf.array();
+    }
+
+    // elf without the last bytes of the code section that ends the file, made that much shorter as well
+    public static byte[] cutCode(byte[] elf, int bytes) {
+        ElfFile file;
+        try {
+            file = new ElfFile(ByteBuffer.wrap(elf));
+        } catch (UnsupportedFileFormatException e) {
+            throw new IllegalArgumentException(e);
+        }
+        ElfReader reader = file.reader();
+        List<ElfSectionHeader> sections = file.sections();
+        for (int i = sections.size() - 1; i > 0; i--) {
+            ElfSectionHeader section = sections.get(i);
+            if ((section.flags & ElfFile.SHF_EXECINSTR) != 0 && section.size > 0
+                    && section.offset + section.size == elf.length) {
+                int cut = Math.min(bytes, section.size);
+                ByteBuffer res = ByteBuffer.wrap(Arrays.copyOf(elf, elf.length - cut))
+                        .order(reader.bigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                int at = (int) reader.sectionTableOffset() + i * reader.sectionHeaderSize();
+                if (reader.is64()) {
+                    res.putLong(at + 32, section.size - cut);
+                } else {
+                    res.putInt(at + 20, section.size - cut);
+                }
+                return res.array();
+            }
+        }
+        throw new IllegalArgumentException("No code section at the end of the file");
+    }
+
+    // PROGBITS, ALLOC | EXECINSTR header of the k-th piece of the code
+    private static void putCodeSection(ByteBuffer elf, boolean is64, int at, int k, int[] names, int[] pieceStart,
+                                       int[] offsets, int textOffset, boolean relocatable) {
+        int from = offsets[pieceStart[k]];
+        int size = offsets[pieceStart[k + 1]] - from;
+        putSection(elf, is64, at, names[k], 1, 6, relocatable ? 0 : TEXT_ADDR + from, textOffset + from, size, 0, 0,
+                4, 0);
+    }
+
+    // code section that holds instruction idx
+    private static int pieceOf(int[] pieceStart, int idx) {
+        int k = Arrays.binarySearch(pieceStart, idx);
+        if (k < 0) {
+            return -k - 2;
+        }
+        // empty sections start where the next one does
+        while (k + 1 < pieceStart.length - 1 && pieceStart[k + 1] == idx) {
+            k++;
+        }
+        return k;
+    }
+
+    public static int randomInstruction(Random random, int idx, int instructions) {
+        return randomInstruction(random, idx, instructions, null);
+    }
+
+    // offsets are the byte offsets of the instructions when they are not all 4 bytes long
+    private static int randomInstruction(Random random, int idx, int instructions, int[] offsets) {
+        int rd = random.nextInt(32);
+        int rs1 = random.nextInt(32);
+        int rs2 = random.nextInt(32);
+        int imm = random.nextInt(4096) - 2048;
+        return switch (random.nextInt(10)) {
+            case 0, 1 -> {
+                int[] funct7 = {0b0000000, 0b0000001, 0b0100000};
+                int f7 = funct7[random.nextInt(3)];
+                int funct3 = f7 == 0b0100000 ? (random.nextBoolean() ? 0b000 : 0b101) : random.nextInt(8);
+                yield encodeR(f7, rs2, rs1, funct3, rd, 0b0110011);
+            }
+            case 2, 3 -> encodeI(imm, rs1, I_FUNCT3[random.nextInt(I_FUNCT3.length)], rd, 0b0010011);
+            case 4 -> encodeI(imm, rs1, LOAD_FUNCT3[random.nextInt(LOAD_FUNCT3.length)], rd, 0b0000011);
+            case 5 -> encodeS(imm, rs2, rs1, random.nextInt(3), 0b0100011);
+            case 6 -> encodeB(branchOffset(random, idx, instructions, 1 << 12, offsets), rs2, rs1,
+                    BRANCH_FUNCT3[random.nextInt(BRANCH_FUNCT3.length)]);
+            case 7 -> encodeJ(branchOffset(random, idx, instructions, 1 << 20, offsets), rd);
+            case 8 -> encodeU(random.nextInt(1 << 20), rd, random.nextBoolean() ? 0b0110111 : 0b0010111);
+            default -> random.nextInt(16) == 0 ? 0b1110011 : encodeI(imm, rs1, 0b000, rd, 0b1100111);
+        };
+    }
+
+    // a random RV64I-only instruction: ld, lwu, sd, the *w ops and shifts by 32..63
+    public static int randomInstruction64(Random random) {
+        int rd = random.nextInt(32);
+        int rs1 = random.nextInt(32);
+        int rs2 = random.nextInt(32);
+        int imm = random.nextInt(4096) - 2048;
+        return switch (random.nextInt(6)) {
+            case 0 -> encodeI(imm, rs1, random.nextBoolean() ? 0b011 : 0b110, rd, 0b0000011);
+            case 1 -> encodeS(imm, rs2, rs1, 0b011, 0b0100011);
+            case 2 -> encodeI(imm, rs1, 0b000, rd, 0b0011011); // addiw
+            case 3 -> {
+                int[] funct3 = {0b001, 0b101, 0b101};
+                int kind = random.nextInt(3);
+                yield encodeI((kind == 2 ? 0b0100000 << 5 : 0) | random.nextInt(32), rs1, funct3[kind], rd, 0b0011011);
+            }
+            case 4 -> {
+                int[] funct7 = {0b0000000, 0b0000001, 0b0100000};
+                int f7 = funct7[random.nextInt(3)];
+                int[] funct3 = f7 == 0b0000001 ? new int[]{0b000, 0b100, 0b101, 0b110, 0b111}
+                        : f7 == 0 ? new int[]{0b000, 0b001, 0b101} : new int[]{0b000, 0b101};
+                yield encodeR(f7, rs2, rs1, funct3[random.nextInt(funct3.length)], rd, 0b0111011);
+            }
+            default -> {
+                int[] funct3 = {0b001, 0b101, 0b101};
+                int kind = random.nextInt(3);
+                yield encodeI((kind == 2 ? 0b010000 << 6 : 0) | 32 | random.nextInt(32), rs1, funct3[kind], rd,
+                        0b0010011);
+            }
+        };
+    }
+
+    // a random valid RVC instruction that does not change control flow
+    public static int randomCompressed(Random random) {
+        return randomCompressed(random, 32);
+    }
+
+    public static int randomCompressed(Random random, int xlen) {
+        Instruction insn = new Instruction();
+        RISCVDecoder decoder = RISCVDecoder.of(xlen, true);
+        while (true) {
+            int half = random.nextInt(1 << 16);
+            if ((half & 0b11) == 0b11) {
+                continue;
+            }
+            decoder.decode(half, insn);
+            int format = insn.format;
+            if (insn.mnemonic != OpCodes.UNKNOWN && format != Instruction.FORMAT_BRANCH
+                    && format != Instruction.FORMAT_JUMP && format != Instruction.FORMAT_RS) {
+                return half;
+            }
+        }
+    }
+
+    // encoders for hand-written code, offsets are in bytes
+    public static int encodeR(int funct7, int rs2, int rs1, int funct3, int rd, int opcode) {
+        return (funct7 << 25) | (rs2 << 20) | (rs1 << 15) | (funct3 << 12) | (rd << 7) | opcode;
+    }
+
+    public static int encodeI(int imm, int rs1, int funct3, int rd, int opcode) {
+        return (imm << 20) | (rs1 << 15) | (funct3 << 12) | (rd << 7) | opcode;
+    }
+
+    public static int encodeS(int imm, int rs2, int rs1, int funct3, int opcode) {
+        return ((imm >> 5) << 25) | (rs2 << 20) | (rs1 << 15) | (funct3 << 12) | ((imm & 0x1f) << 7) | opcode;
+    }
+
+    public static int encodeB(int offset, int rs2, int rs1, int funct3) {
+        return (((offset >> 12) & 1) << 31) | (((offset >> 5) & 0x3f) << 25) | (rs2 << 20) | (rs1 << 15)
+                | (funct3 << 12) | (((offset >> 1) & 0xf) << 8) | (((offset >> 11) & 1) << 7) | 0b1100011;
+    }
+
+    public static int encodeU(int imm20, int rd, int opcode) {
+        return (imm20 << 12) | (rd << 7) | opcode;
+    }
+
+    public static int encodeJ(int offset, int rd) {
+        return (((offset >> 20) & 1) << 31) | (((offset >> 1) & 0x3ff) << 21) | (((offset >> 11) & 1) << 20)
+                | (((offset >> 12) & 0xff) << 12) | (rd << 7) | 0b1101111;
+    }
+
+    // byte offset of a random instruction in .text that is reachable with the given immediate range
+    private static int branchOffset(Random random, int idx, int instructions, int range, int[] offsets) {
+        int reach = range / 4 - 1;
+        int from = Math.max(0, idx - reach);
+        int to = Math.min(instructions - 1, idx + reach);
+        int target = from + random.nextInt(to - from + 1);
+        return offsets == null ? (target - idx) * 4 : offsets[target] - offsets[idx];
+    }
+
+    // byte offset of every instruction, and the .text size at the end
+    private static int[] offsets(int[] code) {
+        int[] offsets = new int[code.length + 1];
+        for (int i = 0; i < code.length; i++) {
+            offsets[i + 1] = offsets[i] + ((code[i] & 0b11) == 0b11 ? 4 : 2);
+        }
+        return offsets;
+    }
+
+    private static void putSection(ByteBuffer elf, boolean is64, int at, int name, int type, int flags, int addr,
+                                   int offset, int size, int link, int info, int align, int entsize) {
+        int[] fields = {name, type, flags, addr, offset, size, link, info, align, entsize};
+        for (int i = 0; i < fields.length; i++) {
+            if (!is64) {
+                elf.putInt(at + i * 4, fields[i]);
+            } else if (i < 2 || i == 6 || i == 7) {
+                // name, type, link and info stay 4 bytes in ELF64
+                elf.putInt(at, fields[i]);
+                at += 4;
+            } else {
+                elf.putLong(at, fields[i]);
+                at += 8;
+            }
+        }
+    }
+
+    private static void putString(ByteBuffer elf, int at, CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            elf.put(at + i, (byte) s.charAt(i));
+        }
+    }
+
+    private static int align(int offset, int alignment) {
+        return (offset + alignment - 1) & -alignment;
+    }
+}
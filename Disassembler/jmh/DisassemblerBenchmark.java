@@ -0,0 +1,100 @@
+package jmh;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// JMH versions of the main Benchmark targets, built by the jmh profile of pom.xml:
+//   mvn -P jmh package && java -jar target/benchmarks.jar -prof gc
+// One invocation handles a whole SyntheticElf file of "instructions" instructions (symbols for the
+// symtab benchmarks), so -prof gc reports gc.alloc.rate.norm per file; divide by the size for per-item
+// numbers. Unlike Benchmark, allocation on the worker threads of -j is counted as well.
+// JMH needs the benchmarks in a package while the disassembler is in the default one, which a named
+// package cannot import: the tasks are built by Benchmark.target, looked up by name once in setup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisassemblerBenchmark {
+    @Param({"262144"})
+    public int instructions;
+
+    private Callable<Object> decode;
+    private Callable<Object> symbols;
+    private Callable<Object> cfg;
+
+    @Setup
+    public void setup() throws Exception {
+        decode = target("decode", instructions, 1);
+        symbols = target("symbols", instructions, 1);
+        cfg = target("cfg", instructions, 1);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return decode.call();
+    }
+
+    @Benchmark
+    public Object symbols() throws Exception {
+        return symbols.call();
+    }
+
+    @Benchmark
+    public Object main(Threads threads) throws Exception {
+        return threads.main.call();
+    }
+
+    @Benchmark
+    public Object mainCompressed(Threads threads) throws Exception {
+        return threads.mainCompressed.call();
+    }
+
+    @Benchmark
+    public Object jsonl(Threads threads) throws Exception {
+        return threads.jsonl.call();
+    }
+
+    @Benchmark
+    public Object cfg() throws Exception {
+        return cfg.call();
+    }
+
+    @SuppressWarnings("unchecked")
+    static Callable<Object> target(String name, int instructions, int threads) throws Exception {
+        return (Callable<Object>) Class.forName("Benchmark")
+                .getMethod("target", String.class, int.class, int.class)
+                .invoke(null, name, instructions, threads);
+    }
+
+    // -j of the end-to-end benchmarks
+    @State(Scope.Benchmark)
+    public static class Threads {
+        @Param({"1", "4"})
+        public int threads;
+
+        Callable<Object> main;
+        Callable<Object> mainCompressed;
+        Callable<Object> jsonl;
+
+        @Setup
+        public void setup(DisassemblerBenchmark benchmark) throws Exception {
+            main = target("main", benchmark.instructions, threads);
+            mainCompressed = target("main-rvc", benchmark.instructions, threads);
+            jsonl = target("jsonl", benchmark.instructions, threads);
+        }
+    }
+}